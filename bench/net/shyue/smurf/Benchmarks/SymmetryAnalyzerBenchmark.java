@@ -0,0 +1,149 @@
+package net.shyue.smurf.Benchmarks;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.vecmath.Point3d;
+import net.shyue.smurf.Analyzers.PointGroup;
+import net.shyue.smurf.Analyzers.SymmetryAnalyzer;
+import net.shyue.smurf.Analyzers.SymmetryOperation;
+import net.shyue.smurf.Benchmarks.SymmetryFixtures.Shape;
+import net.shyue.smurf.Structure.Atom;
+import net.shyue.smurf.Structure.Element;
+import net.shyue.smurf.Structure.Molecule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmarks of symmetry detection on generated structures of every shape
+ * handled by SymmetryAnalyzer, from 10 to 10,000 atoms.
+ *
+ * Run main to execute all benchmarks with the GC profiler, which reports the
+ * allocation rate next to each score.  Arguments are passed on to JMH as a
+ * regular expression of benchmarks to include, e.g. "construct".
+ * @author shyue
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SymmetryAnalyzerBenchmark {
+
+    private static final long SEED = 42;
+    private static final int PAIRS = 1024;
+    @Param({"LINEAR", "ASYMMETRIC_TOP", "SYMMETRIC_TOP", "TETRAHEDRAL", "OCTAHEDRAL", "ICOSAHEDRAL", "BLOB"})
+    private Shape shape;
+    @Param({"10", "100", "1000", "10000"})
+    private int size;
+    private Molecule mol;
+    private SymmetryAnalyzer analyzer;
+    private Element species;
+    private PointGroup pointGroup;
+    private Point3d[] first, second;
+    private int pair;
+
+    /**
+     * Generates the structure and analyzes it once for the query benchmarks.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        mol = SymmetryFixtures.create(shape, size, SEED);
+        analyzer = new SymmetryAnalyzer(mol);
+        species = mol.getAtomSpecies(0);
+        // Warm the orbits, so that getAllDistinct measures only the query.
+        analyzer.getAllDistinct(species);
+        pointGroup = analyzer.getPointGroup();
+
+        // Half of the pairs are images of each other, the rest random atoms.
+        Molecule centered = analyzer.getCenteredMolecule();
+        List<SymmetryOperation> ops = pointGroup.getOperations();
+        Random random = new Random(SEED);
+        first = new Point3d[PAIRS];
+        second = new Point3d[PAIRS];
+        for (int k = 0; k < PAIRS; k++) {
+            first[k] = centered.getAtomCoord(random.nextInt(centered.size()));
+            if (k % 2 == 0) {
+                // C1 has no stored operations, not even the identity.
+                second[k] = ops.isEmpty() ? new Point3d(first[k])
+                        : ops.get(random.nextInt(ops.size())).transformPoint(first[k]);
+            } else {
+                second[k] = centered.getAtomCoord(random.nextInt(centered.size()));
+            }
+        }
+    }
+
+    /**
+     * Full symmetry analysis of a structure.
+     * @return Analyzer.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public SymmetryAnalyzer construct() {
+        return new SymmetryAnalyzer(mol);
+    }
+
+    /**
+     * Symmetry analysis followed by the first query of distinct atoms, which
+     * also computes the symmetry orbits.
+     * @return Distinct atoms.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<Atom> constructAndGetAllDistinct() {
+        return new SymmetryAnalyzer(mol).getAllDistinct(species);
+    }
+
+    /**
+     * Repeated query of distinct atoms on an analyzed structure.
+     * @return Distinct atoms.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public List<Atom> getAllDistinct() {
+        return analyzer.getAllDistinct(species);
+    }
+
+    /**
+     * Equivalence test of a pair of positions under the point group.
+     * @return True if positions are equivalent.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public boolean isSymmetricallyEquivalent() {
+        int k = pair;
+        pair = (k + 1) % PAIRS;
+        return pointGroup.isSymmetricallyEquivalent(first[k], second[k], SymmetryAnalyzer.DEFAULT_TOLERANCE);
+    }
+
+    /**
+     * Runs the benchmarks with the GC profiler.
+     * @param args Optional regular expression of benchmarks to include.
+     * @throws RunnerException if the benchmarks fail.
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(SymmetryAnalyzerBenchmark.class.getSimpleName() + "." + ((args.length > 0) ? args[0] : ""))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(opt).run();
+    }
+}
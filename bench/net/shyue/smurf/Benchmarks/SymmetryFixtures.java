@@ -0,0 +1,349 @@
+package net.shyue.smurf.Benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import net.shyue.smurf.Structure.Atom;
+import net.shyue.smurf.Structure.Element;
+import net.shyue.smurf.Structure.Molecule;
+
+/**
+ * Generates reproducible test structures for symmetry benchmarks.  Each shape
+ * exercises a different branch of SymmetryAnalyzer.processMolecule.
+ *
+ * Symmetric structures are built from whole orbits of a point group, seeded
+ * at random positions and along the special directions of the group so that
+ * the requested number of atoms can be approached with orbits of different
+ * sizes.  Structures therefore have close to, but not always exactly, the
+ * requested number of atoms.  Atoms are never closer than MIN_SEPARATION, and
+ * only a single atom at the origin lies closer than MIN_RADIUS to it.
+ * @author shyue
+ */
+public final class SymmetryFixtures {
+
+    /**
+     * Minimum distance between atoms in Angstroms.
+     */
+    public static final double MIN_SEPARATION = 1.2;
+    /**
+     * Minimum distance of orbits from the origin in Angstroms, so that
+     * rotations by small angles move atoms well beyond the site tolerance.
+     */
+    public static final double MIN_RADIUS = 2.0;
+    private static final double PHI = (1 + Math.sqrt(5)) / 2;
+    private static final Element[] SPECIES = {Element.C, Element.H, Element.N, Element.O};
+    private static final double[][] SPECIAL_DIRECTIONS = {
+        {0, 0, 1}, {1, 0, 0}, {1, 1, 0}, {1, 1, 1}, {0, 1, PHI}, {1, PHI, 1 + PHI}
+    };
+    private static final double[] ONE = {1, 1, 1};
+    private static final int MAX_TRIALS = 1000;
+
+    /**
+     * Shapes of test structures, named by the branch of the analysis.  The
+     * point groups are those the structures are built with.
+     */
+    public enum Shape {
+
+        /**
+         * Linear chain, D*h.
+         */
+        LINEAR,
+        /**
+         * Three distinct moments of inertia, D2h.
+         */
+        ASYMMETRIC_TOP,
+        /**
+         * Two equal moments of inertia, D6h.
+         */
+        SYMMETRIC_TOP,
+        /**
+         * Tetrahedral spherical top, Td.
+         */
+        TETRAHEDRAL,
+        /**
+         * Octahedral spherical top, Oh.
+         */
+        OCTAHEDRAL,
+        /**
+         * Icosahedral spherical top, Ih.
+         */
+        ICOSAHEDRAL,
+        /**
+         * Random blob without symmetry, C1.
+         */
+        BLOB
+    }
+
+    private SymmetryFixtures() {
+    }
+
+    /**
+     * Creates a test structure.
+     * @param shape Shape of structure.
+     * @param size Approximate number of atoms.
+     * @param seed Seed for random positions.
+     * @return Molecule centered at the origin.
+     */
+    public static Molecule create(Shape shape, int size, long seed) {
+        Random random = new Random(seed);
+        List<Atom> atoms;
+        switch (shape) {
+            case LINEAR:
+                atoms = linear(size);
+                break;
+            case ASYMMETRIC_TOP:
+                atoms = fromOrbits(generateGroup(new double[][]{diag(-1, 1, 1), diag(1, -1, 1), diag(1, 1, -1)}),
+                        size, random, new double[]{1, 1.3, 1.7});
+                break;
+            case SYMMETRIC_TOP:
+                atoms = fromOrbits(generateGroup(new double[][]{rotation(0, 0, 1, 6), rotation(1, 0, 0, 2),
+                            diag(1, 1, -1)}), size, random, new double[]{1, 1, 1.5});
+                break;
+            case TETRAHEDRAL:
+                atoms = fromOrbits(generateGroup(new double[][]{rotation(1, 1, 1, 3), rotation(0, 0, 1, 2),
+                            rotoReflection(0, 0, 1, 4)}), size, random, ONE);
+                break;
+            case OCTAHEDRAL:
+                atoms = fromOrbits(generateGroup(new double[][]{rotation(1, 1, 1, 3), rotation(0, 0, 1, 4),
+                            diag(-1, -1, -1)}), size, random, ONE);
+                break;
+            case ICOSAHEDRAL:
+                atoms = fromOrbits(generateGroup(new double[][]{rotation(0, 1, PHI, 5), rotation(1, 1, 1, 3),
+                            diag(-1, -1, -1)}), size, random, ONE);
+                break;
+            default:
+                atoms = blob(size, random);
+        }
+        return new Molecule(shape + "-" + size, 0, 1, atoms);
+    }
+
+    /**
+     * Chain along z with a palindromic sequence of species.
+     */
+    private static List<Atom> linear(int size) {
+        List<Atom> atoms = new ArrayList<Atom>(size);
+        for (int i = 0; i < size; i++) {
+            int fromEnd = Math.min(i, size - 1 - i);
+            atoms.add(new Atom(SPECIES[fromEnd % SPECIES.length], 0, 0, 1.2 * (i - (size - 1) / 2.0)));
+        }
+        return atoms;
+    }
+
+    private static List<Atom> blob(int size, Random random) {
+        List<Atom> atoms = new ArrayList<Atom>(size);
+        double radius = initialRadius(size);
+        int trials = 0;
+        while (atoms.size() < size) {
+            double[] p = randomPoint(random, radius, ONE);
+            if (isClear(atoms, new double[][]{p})) {
+                atoms.add(new Atom(SPECIES[random.nextInt(SPECIES.length)], p[0], p[1], p[2]));
+                trials = 0;
+            } else if (++trials == MAX_TRIALS) {
+                radius *= 1.1;
+                trials = 0;
+            }
+        }
+        return atoms;
+    }
+
+    /**
+     * Adds orbits of the group until size atoms are reached, choosing for
+     * each seed the largest orbit which still fits, or the smallest orbit if
+     * none does.  Points are stretched by aspect before use, which must
+     * commute with the group.
+     */
+    private static List<Atom> fromOrbits(List<double[]> group, int size, Random random, double[] aspect) {
+        List<Atom> atoms = new ArrayList<Atom>(size);
+        double radius = initialRadius(size);
+        int trials = 0;
+        int orbitCount = 0;
+        while (atoms.size() < size) {
+            int remaining = size - atoms.size();
+            if (remaining == 1 && isClear(atoms, new double[][]{{0, 0, 0}})) {
+                atoms.add(new Atom(SPECIES[orbitCount % SPECIES.length], 0, 0, 0));
+                break;
+            }
+            double r = MIN_RADIUS + (radius - MIN_RADIUS) * Math.cbrt(random.nextDouble());
+            double[][] best = orbit(group, onSphere(randomPoint(random, 1, ONE), r, aspect));
+            double[][] smallest = best;
+            for (double[] dir : SPECIAL_DIRECTIONS) {
+                double[][] candidate = orbit(group, onSphere(dir, r, aspect));
+                if (candidate.length < smallest.length) {
+                    smallest = candidate;
+                }
+                if (candidate.length <= remaining && (best.length > remaining || candidate.length > best.length)) {
+                    best = candidate;
+                }
+            }
+            double[][] chosen = (best.length <= remaining) ? best : smallest;
+            if (isClear(atoms, chosen)) {
+                Element species = SPECIES[orbitCount++ % SPECIES.length];
+                for (double[] p : chosen) {
+                    atoms.add(new Atom(species, p[0], p[1], p[2]));
+                }
+                trials = 0;
+            } else if (++trials == MAX_TRIALS) {
+                radius *= 1.1;
+                trials = 0;
+            }
+        }
+        return atoms;
+    }
+
+    /**
+     * Radius of a sphere holding size atoms at a moderate density.
+     */
+    private static double initialRadius(int size) {
+        return 1.8 * Math.cbrt(size) + MIN_RADIUS + 1;
+    }
+
+    /**
+     * Scales a direction to length radius, then stretches it by aspect.
+     */
+    private static double[] onSphere(double[] dir, double radius, double[] aspect) {
+        double len = Math.sqrt(dir[0] * dir[0] + dir[1] * dir[1] + dir[2] * dir[2]);
+        return new double[]{radius * aspect[0] * dir[0] / len, radius * aspect[1] * dir[1] / len,
+                    radius * aspect[2] * dir[2] / len};
+    }
+
+    private static double[] randomPoint(Random random, double radius, double[] aspect) {
+        double x, y, z, l2;
+        do {
+            x = 2 * random.nextDouble() - 1;
+            y = 2 * random.nextDouble() - 1;
+            z = 2 * random.nextDouble() - 1;
+            l2 = x * x + y * y + z * z;
+        } while (l2 > 1 || l2 < 1e-6);
+        return new double[]{radius * aspect[0] * x, radius * aspect[1] * y, radius * aspect[2] * z};
+    }
+
+    /**
+     * Tests that new points keep MIN_SEPARATION from existing atoms and from
+     * each other.
+     */
+    private static boolean isClear(List<Atom> atoms, double[][] points) {
+        double minSq = MIN_SEPARATION * MIN_SEPARATION;
+        for (int i = 0; i < points.length; i++) {
+            double[] p = points[i];
+            for (int j = 0; j < i; j++) {
+                if (distanceSquared(p, points[j]) < minSq) {
+                    return false;
+                }
+            }
+            for (Atom at : atoms) {
+                double dx = at.getX() - p[0];
+                double dy = at.getY() - p[1];
+                double dz = at.getZ() - p[2];
+                if (dx * dx + dy * dy + dz * dz < minSq) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Distinct images of a point under all operations of the group.
+     */
+    private static double[][] orbit(List<double[]> group, double[] p) {
+        List<double[]> images = new ArrayList<double[]>(group.size());
+        for (double[] m : group) {
+            double[] q = {m[0] * p[0] + m[1] * p[1] + m[2] * p[2],
+                m[3] * p[0] + m[4] * p[1] + m[5] * p[2],
+                m[6] * p[0] + m[7] * p[1] + m[8] * p[2]};
+            boolean isNew = true;
+            for (double[] image : images) {
+                if (distanceSquared(q, image) < 1e-8) {
+                    isNew = false;
+                    break;
+                }
+            }
+            if (isNew) {
+                images.add(q);
+            }
+        }
+        return images.toArray(new double[images.size()][]);
+    }
+
+    /**
+     * Closes a set of 3x3 generators, stored row by row, under
+     * multiplication.
+     */
+    private static List<double[]> generateGroup(double[][] generators) {
+        List<double[]> group = new ArrayList<double[]>();
+        group.add(diag(1, 1, 1));
+        for (int k = 0; k < group.size(); k++) {
+            for (double[] g : generators) {
+                double[] product = multiply(g, group.get(k));
+                boolean isNew = true;
+                for (double[] m : group) {
+                    if (isClose(m, product)) {
+                        isNew = false;
+                        break;
+                    }
+                }
+                if (isNew) {
+                    group.add(product);
+                }
+            }
+        }
+        return group;
+    }
+
+    private static double[] diag(double a, double b, double c) {
+        return new double[]{a, 0, 0, 0, b, 0, 0, 0, c};
+    }
+
+    /**
+     * Proper rotation by 360/order degrees about an axis.
+     */
+    private static double[] rotation(double x, double y, double z, int order) {
+        double l = Math.sqrt(x * x + y * y + z * z);
+        double u = x / l, v = y / l, w = z / l;
+        double c = Math.cos(2 * Math.PI / order);
+        double s = Math.sin(2 * Math.PI / order);
+        double t = 1 - c;
+        return new double[]{t * u * u + c, t * u * v - s * w, t * u * w + s * v,
+                    t * u * v + s * w, t * v * v + c, t * v * w - s * u,
+                    t * u * w - s * v, t * v * w + s * u, t * w * w + c};
+    }
+
+    /**
+     * Rotation by 360/order degrees followed by reflection in the plane
+     * normal to the axis.
+     */
+    private static double[] rotoReflection(double x, double y, double z, int order) {
+        double l = Math.sqrt(x * x + y * y + z * z);
+        double u = x / l, v = y / l, w = z / l;
+        double[] reflection = {1 - 2 * u * u, -2 * u * v, -2 * u * w,
+            -2 * u * v, 1 - 2 * v * v, -2 * v * w,
+            -2 * u * w, -2 * v * w, 1 - 2 * w * w};
+        return multiply(reflection, rotation(x, y, z, order));
+    }
+
+    private static double[] multiply(double[] a, double[] b) {
+        double[] c = new double[9];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                c[3 * i + j] = a[3 * i] * b[j] + a[3 * i + 1] * b[3 + j] + a[3 * i + 2] * b[6 + j];
+            }
+        }
+        return c;
+    }
+
+    private static boolean isClose(double[] a, double[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (Math.abs(a[i] - b[i]) > 1e-6) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static double distanceSquared(double[] a, double[] b) {
+        double dx = a[0] - b[0];
+        double dy = a[1] - b[1];
+        double dz = a[2] - b[2];
+        return dx * dx + dy * dy + dz * dz;
+    }
+}
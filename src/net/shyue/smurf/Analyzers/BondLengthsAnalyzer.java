@@ -37,14 +37,14 @@ public class BondLengthsAnalyzer {
         NetworkRepresentation networkRep = new NetworkRepresentation(mol, networkThreshold);
         MolBuilder builder = new DefaultMolBuilder(mol);
         for (int i = 0, n = mol.size(); i < n; i++) {
-            if (mol.get(i).getSpecies() == Element.H) {
-                List<Atom> NNs = networkRep.getAdjacentAtoms(mol.get(i));
-                if (NNs.size() != 1) {
+            if (mol.getAtomSpecies(i) == Element.H) {
+                int numNNs = networkRep.degree(i);
+                if (numNNs != 1) {
                     throw new IllegalStateException("H"+i+" should only have 1 nearest" +
-                            " neighbour, not " + NNs.size() + "!");
+                            " neighbour, not " + numNNs + "!");
                 } else {
                     Atom Hatom = mol.get(i);
-                    Atom NN = NNs.get(0);
+                    Atom NN = mol.get(networkRep.neighbor(i, 0));
                     double expectedBL = BondLengthsData.getBondLength(Hatom.getSpecies(), NN.getSpecies(), 1);
                     double currentBL = NN.getCoord().distance(Hatom.getCoord());
                     
@@ -63,12 +63,16 @@ public class BondLengthsAnalyzer {
     public Set<Bond> getBonds(){
         NetworkRepresentation networkRep = new NetworkRepresentation(mol);
         Set<Bond> bonds = new HashSet<Bond>();
-        for (Atom at : mol)
+        for (int i = 0, n = mol.size(); i < n; i++)
         {
-            List<Atom> adjAtoms = networkRep.getAdjacentAtoms(at);
-            for (Atom adjAtom : adjAtoms)
+            for (int k = 0, degree = networkRep.degree(i); k < degree; k++)
             {
-                bonds.add(new Bond(at,adjAtom));
+                int j = networkRep.neighbor(i, k);
+                // Each bond is listed by both of its atoms.
+                if (j > i)
+                {
+                    bonds.add(new Bond(mol.get(i), mol.get(j)));
+                }
             }
         }
 
@@ -33,16 +33,27 @@ public class ClusterAnalyzer {
         mol = mol_in;
         netRep = new NetworkRepresentation(mol, threshold);
         clusters = new HashSet<AtomCluster>();
-        Set<Atom> processedAtoms = new HashSet<Atom>(mol.size());
-        for (Atom at : mol) {
-            if (!processedAtoms.contains(at)) {
+        // Each cluster is a connected component of the network.
+        boolean[] processed = new boolean[mol.size()];
+        int[] stack = new int[mol.size()];
+        for (int i = 0, n = mol.size(); i < n; i++) {
+            if (!processed[i]) {
                 AtomCluster newCluster = new AtomCluster();
-                newCluster.add(at);
-                for (Atom adjAt : netRep.getAdjacentAtoms(at)) {
-                    newCluster.addAll(netRep.getNetwork(at, adjAt));
+                processed[i] = true;
+                stack[0] = i;
+                int top = 1;
+                while (top > 0) {
+                    int j = stack[--top];
+                    newCluster.add(mol.get(j));
+                    for (int k = 0, degree = netRep.degree(j); k < degree; k++) {
+                        int adj = netRep.neighbor(j, k);
+                        if (!processed[adj]) {
+                            processed[adj] = true;
+                            stack[top++] = adj;
+                        }
+                    }
                 }
                 clusters.add(newCluster);
-                processedAtoms.addAll(newCluster);
 
             }
         }
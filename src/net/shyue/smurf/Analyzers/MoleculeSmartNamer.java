@@ -165,10 +165,10 @@ public class MoleculeSmartNamer {
         determineAnchors();
         determineNonRingBase(anchors.get(0));
         name = basename + "-";
-        List<Atom> adjAtoms = molRep.getAdjacentAtoms(anchors.get(0));
+        int anchor = mol.indexOf(anchors.get(0));
         List<FunctionalGroup> fGroups = new ArrayList<FunctionalGroup>();
-        for (Atom at : adjAtoms) {
-            fGroups.add(new FunctionalGroup(molRep.getNetwork(anchors.get(0), at)));
+        for (int k = 0, degree = molRep.degree(anchor); k < degree; k++) {
+            fGroups.add(new FunctionalGroup(molRep.getNetwork(anchor, molRep.neighbor(anchor, k))));
 
         }
         Collections.sort(fGroups);
@@ -180,13 +180,12 @@ public class MoleculeSmartNamer {
     }
 
     private List<FunctionalGroup> getRingLink(Atom ringAtom) {
-        List<Atom> adjAtoms = molRep.getAdjacentAtoms(ringAtom);
+        int ringIndex = mol.indexOf(ringAtom);
         List<FunctionalGroup> fGroups = new ArrayList<FunctionalGroup>();
-//        System.out.println(ringAtom);
-//        System.out.println(adjAtoms.size());
-        for (Atom at : adjAtoms) {
-            if (!ringAtoms.contains(at)) {
-                fGroups.add(new FunctionalGroup(molRep.getNetwork(ringAtom, at)));
+        for (int k = 0, degree = molRep.degree(ringIndex); k < degree; k++) {
+            int adj = molRep.neighbor(ringIndex, k);
+            if (!ringAtoms.contains(mol.get(adj))) {
+                fGroups.add(new FunctionalGroup(molRep.getNetwork(ringIndex, adj)));
             }
         }
         Collections.sort(fGroups);
@@ -228,7 +227,7 @@ public class MoleculeSmartNamer {
     }
 
     private void determineNonRingBase(Atom anchorAtom) {
-        boolean isCation = (molRep.getAdjacentAtoms(anchorAtom).size() == cationBondOrder.get(anchorAtom.getSpecies()));
+        boolean isCation = (molRep.degree(mol.indexOf(anchorAtom)) == cationBondOrder.get(anchorAtom.getSpecies()));
         basename = nonRingBaseMap.get(anchors.get(0).getSpecies());
         String[] tokBases = basename.split("/");
         if (tokBases.length > 1) {
@@ -245,7 +244,7 @@ public class MoleculeSmartNamer {
     private void determineRingBase() {
         boolean saturated = true;
         for (Atom at : ringAtoms) {
-            if (molRep.getAdjacentAtoms(at).size() < cationBondOrder.get(at.getSpecies())) {
+            if (molRep.degree(mol.indexOf(at)) < cationBondOrder.get(at.getSpecies())) {
                 saturated = false;
                 break;
             }
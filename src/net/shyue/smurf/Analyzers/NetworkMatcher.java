@@ -0,0 +1,342 @@
+package net.shyue.smurf.Analyzers;
+
+import net.shyue.smurf.Structure.Molecule;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Finds an isomorphism between two bond networks, i.e. a one to one mapping
+ * of atoms which preserves species and bonds, with a VF2++ style search.
+ *
+ * Atoms of the first network are matched in a fixed order: a breadth first
+ * search from the atom whose canonical class is rarest, taking at each
+ * level first the atoms with most bonds to atoms already ordered.  Each atom
+ * after the root of its component is then matched only to unmatched
+ * neighbours of the image of its parent, and only if it has the same species
+ * and Weisfeiler-Lehman class, and its bonds to the atoms already matched
+ * correspond.  Networks with different topology hashes are rejected without
+ * searching.
+ * @author shyue
+ */
+public class NetworkMatcher {
+
+    /**
+     * Number of search steps between checks of the timeout.
+     */
+    private static final int TIMEOUT_CHECK_INTERVAL = 1024;
+    private final NetworkRepresentation net1;
+    private final NetworkRepresentation net2;
+    private final long timeoutNanos;
+    private boolean timedOut;
+
+    /**
+     * Creates a matcher with no timeout.
+     * @param net1_in First network.
+     * @param net2_in Second network.
+     */
+    public NetworkMatcher(NetworkRepresentation net1_in, NetworkRepresentation net2_in) {
+        this(net1_in, net2_in, 0);
+    }
+
+    /**
+     * Creates a matcher which gives up after a time limit.
+     * @param net1_in First network.
+     * @param net2_in Second network.
+     * @param timeoutMillis_in Time limit of each search in milliseconds, or 0
+     * for no limit.
+     */
+    public NetworkMatcher(NetworkRepresentation net1_in, NetworkRepresentation net2_in, long timeoutMillis_in) {
+        if (timeoutMillis_in < 0) {
+            throw new IllegalArgumentException("Timeout must not be negative!");
+        }
+        net1 = net1_in;
+        net2 = net2_in;
+        timeoutNanos = timeoutMillis_in * 1000000L;
+    }
+
+    /**
+     * Searches for an isomorphism from the first network to the second.
+     * @return Mapping of atoms, with element i the index in the second network
+     * of the atom matched to atom i of the first, or null if the networks
+     * are not isomorphic or the search timed out.
+     * @see #isTimedOut()
+     */
+    public int[] findMapping() {
+        timedOut = false;
+        Molecule mol1 = net1.getMolecule();
+        Molecule mol2 = net2.getMolecule();
+        int n = mol1.size();
+        if (n != mol2.size() || net1.getTopologyHash() != net2.getTopologyHash()) {
+            return null;
+        }
+        int[] classes1 = net1.getAtomClasses();
+        int[] classes2 = net2.getAtomClasses();
+        int[] order = new int[n];
+        int[] parent = new int[n];
+        computeOrder(classes1, order, parent);
+
+        int[] core1 = new int[n];
+        int[] core2 = new int[n];
+        Arrays.fill(core1, -1);
+        Arrays.fill(core2, -1);
+        // pos[d] is the next candidate to try for the atom at depth d, as an
+        // atom index for roots and a neighbour position otherwise.
+        int[] pos = new int[n + 1];
+        long deadline = System.nanoTime() + timeoutNanos;
+        int steps = 0;
+        int d = 0;
+        while (d >= 0) {
+            if (d == n) {
+                return core1;
+            }
+            if (timeoutNanos > 0 && ++steps % TIMEOUT_CHECK_INTERVAL == 0 && System.nanoTime() - deadline > 0) {
+                timedOut = true;
+                return null;
+            }
+            int u = order[d];
+            if (core1[u] >= 0) {
+                core2[core1[u]] = -1;
+                core1[u] = -1;
+            }
+            int v = -1;
+            int image = (parent[d] < 0) ? -1 : core1[parent[d]];
+            int end = (image < 0) ? n : net2.degree(image);
+            while (pos[d] < end) {
+                int w = (image < 0) ? pos[d] : net2.neighbor(image, pos[d]);
+                pos[d]++;
+                if (core2[w] < 0 && classes1[u] == classes2[w] && mol1.getAtomSpecies(u) == mol2.getAtomSpecies(w)
+                        && isFeasible(u, w, core1, core2)) {
+                    v = w;
+                    break;
+                }
+            }
+            if (v < 0) {
+                d--;
+                continue;
+            }
+            core1[u] = v;
+            core2[v] = u;
+            pos[++d] = 0;
+        }
+        return null;
+    }
+
+    /**
+     * @return True if the last search gave up before finding a mapping or
+     * exhausting all candidates.
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * Bonds of u to matched atoms must be bonds of v to their images, and v
+     * must have no other bonds to matched atoms.
+     */
+    private boolean isFeasible(int u, int v, int[] core1, int[] core2) {
+        int matched = 0;
+        for (int k = 0, degree = net1.degree(u); k < degree; k++) {
+            int w = core1[net1.neighbor(u, k)];
+            if (w >= 0) {
+                if (!net2.isBonded(v, w)) {
+                    return false;
+                }
+                matched++;
+            }
+        }
+        for (int k = 0, degree = net2.degree(v); k < degree; k++) {
+            if (core2[net2.neighbor(v, k)] >= 0) {
+                matched--;
+            }
+        }
+        return matched == 0;
+    }
+
+    /**
+     * Orders the atoms of the first network for matching.  parent[d] is the
+     * first neighbour of order[d] ordered before it, or -1 for the root of a
+     * component.  Candidate roots are sorted once, and the atoms of each
+     * level are taken from a heap, so ordering takes O(n log n) also for
+     * networks of many small components.
+     */
+    private void computeOrder(final int[] classes, int[] order, int[] parent) {
+        int n = classes.length;
+        final int[] frequency = new int[n];
+        for (int c : classes) {
+            frequency[c]++;
+        }
+        // Rarest class first, then highest degree, then lowest index.
+        Integer[] roots = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            roots[i] = i;
+        }
+        Arrays.sort(roots, new Comparator<Integer>() {
+
+            public int compare(Integer i, Integer j) {
+                if (frequency[classes[i]] != frequency[classes[j]]) {
+                    return (frequency[classes[i]] < frequency[classes[j]]) ? -1 : 1;
+                }
+                if (net1.degree(i) != net1.degree(j)) {
+                    return (net1.degree(i) > net1.degree(j)) ? -1 : 1;
+                }
+                return i.compareTo(j);
+            }
+        });
+        // Number of bonds of each unordered atom to ordered atoms.
+        int[] connections = new int[n];
+        int[] reached = new int[n];
+        boolean[] ordered = new boolean[n];
+        boolean[] queued = new boolean[n];
+        LevelQueue level = new LevelQueue(n, connections, classes, frequency);
+        int count = 0;
+        int nextRoot = 0;
+        while (count < n) {
+            while (ordered[roots[nextRoot]]) {
+                nextRoot++;
+            }
+            int root = roots[nextRoot];
+            queued[root] = true;
+            int levelStart = count;
+            reached[count] = root;
+            int levelEnd = count + 1;
+            while (levelStart < levelEnd) {
+                // Take the atoms of the level in order of most connections to
+                // ordered atoms, then highest degree, then rarest class.
+                for (int k = levelStart; k < levelEnd; k++) {
+                    level.add(reached[k]);
+                }
+                for (int k = levelStart; k < levelEnd; k++) {
+                    int u = level.poll();
+                    order[k] = u;
+                    ordered[u] = true;
+                    parent[k] = -1;
+                    for (int m = 0, degree = net1.degree(u); m < degree; m++) {
+                        int w = net1.neighbor(u, m);
+                        connections[w]++;
+                        level.increased(w);
+                        if (ordered[w] && parent[k] < 0) {
+                            parent[k] = w;
+                        }
+                    }
+                }
+                // Next level is the unqueued neighbours of this level.
+                int next = levelEnd;
+                for (int k = levelStart; k < levelEnd; k++) {
+                    int u = order[k];
+                    for (int m = 0, degree = net1.degree(u); m < degree; m++) {
+                        int w = net1.neighbor(u, m);
+                        if (!queued[w]) {
+                            queued[w] = true;
+                            reached[next++] = w;
+                        }
+                    }
+                }
+                levelStart = levelEnd;
+                levelEnd = next;
+            }
+            count = levelStart;
+        }
+    }
+
+    /**
+     * Binary heap of the unordered atoms of a level, with the best next atom
+     * on top.  The connections of an atom in the heap only ever increase.
+     */
+    private final class LevelQueue {
+
+        private final int[] heap;
+        private final int[] heapPos;
+        private final int[] connections;
+        private final int[] classes;
+        private final int[] frequency;
+        private int size;
+
+        LevelQueue(int n, int[] connections_in, int[] classes_in, int[] frequency_in) {
+            heap = new int[n];
+            heapPos = new int[n];
+            Arrays.fill(heapPos, -1);
+            connections = connections_in;
+            classes = classes_in;
+            frequency = frequency_in;
+        }
+
+        void add(int u) {
+            heap[size] = u;
+            heapPos[u] = size;
+            siftUp(size++);
+        }
+
+        int poll() {
+            int top = heap[0];
+            heapPos[top] = -1;
+            if (--size > 0) {
+                heap[0] = heap[size];
+                heapPos[heap[0]] = 0;
+                siftDown(0);
+            }
+            return top;
+        }
+
+        /* Restores the heap after the connections of u increased, if u is in
+         * the heap. */
+        void increased(int u) {
+            if (heapPos[u] >= 0) {
+                siftUp(heapPos[u]);
+            }
+        }
+
+        private boolean isBefore(int i, int j) {
+            if (isBetterNext(i, j, connections, classes, frequency)) {
+                return true;
+            }
+            return !isBetterNext(j, i, connections, classes, frequency) && i < j;
+        }
+
+        private void siftUp(int k) {
+            int u = heap[k];
+            while (k > 0) {
+                int parentPos = (k - 1) >>> 1;
+                int p = heap[parentPos];
+                if (!isBefore(u, p)) {
+                    break;
+                }
+                heap[k] = p;
+                heapPos[p] = k;
+                k = parentPos;
+            }
+            heap[k] = u;
+            heapPos[u] = k;
+        }
+
+        private void siftDown(int k) {
+            int u = heap[k];
+            while (true) {
+                int child = 2 * k + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && isBefore(heap[child + 1], heap[child])) {
+                    child++;
+                }
+                if (!isBefore(heap[child], u)) {
+                    break;
+                }
+                heap[k] = heap[child];
+                heapPos[heap[k]] = k;
+                k = child;
+            }
+            heap[k] = u;
+            heapPos[u] = k;
+        }
+    }
+
+    private boolean isBetterNext(int i, int j, int[] connections, int[] classes, int[] frequency) {
+        if (connections[i] != connections[j]) {
+            return connections[i] > connections[j];
+        }
+        if (net1.degree(i) != net1.degree(j)) {
+            return net1.degree(i) > net1.degree(j);
+        }
+        return frequency[classes[i]] < frequency[classes[j]];
+    }
+}
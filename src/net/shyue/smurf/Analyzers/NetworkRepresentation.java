@@ -2,275 +2,946 @@ package net.shyue.smurf.Analyzers;
 
 import net.shyue.smurf.Structure.Atom;
 import net.shyue.smurf.Structure.BondLengthsData;
+import net.shyue.smurf.Structure.CellList;
+import net.shyue.smurf.Structure.Element;
 import net.shyue.smurf.Structure.Molecule;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Stack;
-import java.util.TreeSet;
+import java.util.Set;
 
 /**
+ * Bond network of a Molecule, with atoms bonded if closer than a percentage
+ * threshold of their single bond length.
  *
+ * Bonds are stored by atom index in compressed sparse row form: the
+ * neighbours of atom i are neighbors[offsets[i]] to
+ * neighbors[offsets[i + 1] - 1], in ascending order.  Walking the network
+ * by index with {@link #degree(int)} and {@link #neighbor(int, int)}
+ * requires no hashing or boxing, and a network of n atoms with b bonds takes
+ * only 4(n + 2b) bytes.
  * @author shyue
  */
 public class NetworkRepresentation {
 
-    private Map<Atom, List<Atom>> adjacencyList;
     private Molecule mol;
     private double distThresholdPer = 1.1;
+    private int[] offsets;
+    private int[] neighbors;
+    private int[] atomClasses;
+    private long topologyHash;
+    /**
+     * Bond length used for species pairs not in the bond length table.
+     */
+    private static final double DEFAULT_BOND_LENGTH = 2.5;
+    /**
+     * Largest ring size in the first band of ring candidates.
+     */
+    private static final int INITIAL_RING_SIZE = 8;
+    /**
+     * FNV-1a 64 bit offset basis, the initial value of the topology hash.
+     */
+    private static final long HASH_SEED = 0xcbf29ce484222325L;
+    private static final Comparator<int[]> BY_LENGTH = new Comparator<int[]>() {
+
+        @Override
+        public int compare(int[] a, int[] b) {
+            return a.length - b.length;
+        }
+    };
 
     public NetworkRepresentation(Molecule _mol) {
         mol = _mol;
-        adjacencyList = computeAdjacencyList();
+        computeBonds();
 
     }
 
     public NetworkRepresentation(Molecule _mol, double _distThresholdPer) {
         mol = _mol;
         distThresholdPer = _distThresholdPer;
-        adjacencyList = computeAdjacencyList();
+        computeBonds();
 
     }
 
-    private Map<Atom, List<Atom>> computeAdjacencyList() {
-        Map<Atom, List<Atom>> adjList = new HashMap<Atom, List<Atom>>(mol.size());
-        for (Atom at1 : mol) {
-            List<Atom> adjAtoms = new ArrayList<Atom>();
-            for (Atom at2 : mol) {
-                if (at1 != at2) {
-                    double bondlength = 2.5;
-
-                    try {
-                        bondlength = BondLengthsData.getBondLength(at1.getSpecies(), at2.getSpecies(), 1);
-                    } catch (Exception ex) {
-//                        System.out.println(ex.getMessage());
-//                        System.out.println(at1.getSpecies().toString() + at2.getSpecies().toString() + 1);
-//                        System.out.println("Using generic bond length of 2.5A");
-                        bondlength = 2.5;
-                    }
-                    // Only single bond lengths are used, since they are usually the longest.
-                    // Since no connectivity information is assumed, the program does not support folded molecules.
-                    double comparisonDist = distThresholdPer * bondlength;
-                    if (mol.getDist(at1, at2) < comparisonDist) {
-                        adjAtoms.add(at2);
+    private void computeBonds() {
+        int n = mol.size();
+        double[][] cutoffs = computePairCutoffs();
+        // Only single bond lengths are used, since they are usually the longest.
+        // Since no connectivity information is assumed, the program does not support folded molecules.
+        double maxCutoff = distThresholdPer * Math.max(BondLengthsData.getMaxBondLength(1), DEFAULT_BOND_LENGTH);
+        CellList cells = new CellList(mol, maxCutoff);
+        offsets = new int[n + 1];
+        int[] bonded = new int[Math.max(16, 4 * n)];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            int si = mol.getAtomSpecies(i).ordinal();
+            for (int j : cells.getNeighbors(i, maxCutoff)) {
+                if (mol.getDist(i, j) < cutoffs[si][mol.getAtomSpecies(j).ordinal()]) {
+                    if (count == bonded.length) {
+                        bonded = Arrays.copyOf(bonded, 2 * count);
                     }
+                    bonded[count++] = j;
                 }
             }
-            adjList.put(at1, adjAtoms);
+            offsets[i + 1] = count;
+        }
+        neighbors = Arrays.copyOf(bonded, count);
+    }
+
+    /**
+     * Bonding cutoffs only depend on the species pair, so they are determined
+     * once for each pair of species present rather than for each pair of
+     * atoms.  Pairs not in the bond length table use a generic bond length.
+     * @return Cutoffs indexed by element ordinals.
+     */
+    private double[][] computePairCutoffs() {
+        Set<Element> present = EnumSet.noneOf(Element.class);
+        for (int i = 0, n = mol.size(); i < n; i++) {
+            present.add(mol.getAtomSpecies(i));
+        }
+        int numElements = Element.values().length;
+        double[][] cutoffs = new double[numElements][];
+        for (Element el1 : present) {
+            cutoffs[el1.ordinal()] = new double[numElements];
+            for (Element el2 : present) {
+                cutoffs[el1.ordinal()][el2.ordinal()] = distThresholdPer
+                        * BondLengthsData.getBondLengthOrDefault(el1, el2, 1, DEFAULT_BOND_LENGTH);
+            }
         }
-        return adjList;
+        return cutoffs;
     }
 
+    /**
+     * Returns the smallest ring of the network.
+     * @return Atoms in order around the smallest ring, or an empty list if
+     * there are no rings.
+     * @see #findRings()
+     */
     public List<Atom> findRing() {
-        if (adjacencyList.size() == 0) {
-            return new ArrayList<Atom>();
-        }
-        Atom[] at = adjacencyList.keySet().toArray(new Atom[adjacencyList.size()]);
-        Stack<Atom> path = new Stack<Atom>();
-        path.add(at[0]);
-        List<Stack<Atom>> paths = new ArrayList<Stack<Atom>>();
-        paths.add(path);
-        while (paths.size() > 0) {
-            List<Stack<Atom>> newpaths = new ArrayList<Stack<Atom>>();
-            for (Stack<Atom> temppath : paths) {
-                List<Atom> adjAtoms = getAdjacentAtoms(temppath.peek());
-                for (Atom at1 : adjAtoms) {
-                    if (!temppath.contains(at1)) // Ignores the previous atom and if loop occurs, this breaks it.
-                    {
-                        @SuppressWarnings("unchecked") //Stack is created internally.  The conversion below is always valid.
-                        Stack<Atom> newpath = (Stack<Atom>) temppath.clone();
-                        newpath.push(at1);
-                        newpaths.add(newpath);
-                    } else if (temppath.indexOf(at1) != temppath.size() - 2) {
-                        return temppath.subList(temppath.indexOf(at1), temppath.size());
+        List<int[]> rings = findRings();
+        List<Atom> ring = new ArrayList<Atom>();
+        if (!rings.isEmpty()) {
+            for (int i : rings.get(0)) {
+                ring.add(mol.get(i));
+            }
+        }
+        return ring;
+    }
+
+    /**
+     * Perceives the smallest set of smallest rings (SSSR), i.e. a minimum
+     * cycle basis of the network.
+     *
+     * Candidate rings are generated as in Vismara's algorithm: for each atom
+     * r, a breadth first search over r and the atoms of lower index yields
+     * the rings closed by one bond or one atom opposite r, made of two
+     * shortest paths meeting only at r.  Every minimum cycle basis is made of
+     * such rings.  Candidates are then taken in order of increasing size and
+     * kept if independent of the rings already kept, by Gaussian elimination
+     * over GF(2) on their bond sets, until the basis is complete.
+     *
+     * Candidates are generated in bands of doubling maximum size, starting
+     * with rings of up to INITIAL_RING_SIZE atoms, so the searches only need
+     * to reach half the band size from each atom.  The usual small rings are
+     * therefore found in time linear in the number of atoms.
+     * @return Rings as atom indices in order around each ring, smallest
+     * first.
+     */
+    public List<int[]> findRings() {
+        int n = mol.size();
+        int numBonds = neighbors.length / 2;
+        int rank = numBonds - n + numComponents();
+        List<int[]> rings = new ArrayList<int[]>(rank);
+        if (rank <= 0) {
+            return rings;
+        }
+        int[] bondIds = new int[neighbors.length];
+        for (int i = 0, next = 0; i < n; i++) {
+            for (int p = offsets[i]; p < offsets[i + 1]; p++) {
+                int j = neighbors[p];
+                int q = (j < i) ? Arrays.binarySearch(neighbors, offsets[j], offsets[j + 1], i) : -1;
+                bondIds[p] = (q >= 0) ? bondIds[q] : next++;
+            }
+        }
+        long[][] pivotRows = new long[numBonds][];
+        int words = (numBonds + 63) >>> 6;
+        for (int minSize = 0, maxSize = INITIAL_RING_SIZE; rings.size() < rank && minSize < n; minSize = maxSize, maxSize *= 2) {
+            List<int[]> candidates = ringCandidates(minSize, maxSize);
+            Collections.sort(candidates, BY_LENGTH);
+            for (int[] ring : candidates) {
+                long[] row = new long[words];
+                for (int k = 0; k < ring.length; k++) {
+                    int a = ring[k];
+                    int b = ring[(k + 1) % ring.length];
+                    int bond = bondIds[Arrays.binarySearch(neighbors, offsets[a], offsets[a + 1], b)];
+                    row[bond >>> 6] ^= 1L << bond;
+                }
+                if (isIndependent(row, pivotRows)) {
+                    rings.add(ring);
+                    if (rings.size() == rank) {
+                        break;
                     }
+                }
+            }
+        }
+        return rings;
+    }
 
+    /**
+     * Reduces row against the rows kept so far, each stored under its lowest
+     * bond.  If anything remains, it is kept as a new row.
+     * @return True if row is independent of the rows kept.
+     */
+    private static boolean isIndependent(long[] row, long[][] pivotRows) {
+        for (int w = 0; w < row.length; w++) {
+            while (row[w] != 0) {
+                int pivot = (w << 6) + Long.numberOfTrailingZeros(row[w]);
+                long[] pivotRow = pivotRows[pivot];
+                if (pivotRow == null) {
+                    pivotRows[pivot] = row;
+                    return true;
+                }
+                for (int v = w; v < row.length; v++) {
+                    row[v] ^= pivotRow[v];
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Generates the candidate rings of {@link #findRings()} with more than
+     * minSize and at most maxSize atoms.
+     */
+    private List<int[]> ringCandidates(int minSize, int maxSize) {
+        int n = mol.size();
+        int maxDist = maxSize / 2;
+        int[] dist = new int[n];
+        int[] parent = new int[n];
+        // First atom after r on the path to each atom.  Two search tree
+        // paths only meet at r if they start with different atoms.
+        int[] branch = new int[n];
+        int[] queue = new int[n];
+        int[] preds = new int[16];
+        Arrays.fill(dist, -1);
+        List<int[]> candidates = new ArrayList<int[]>();
+        for (int r = 0; r < n; r++) {
+            dist[r] = 0;
+            parent[r] = -1;
+            queue[0] = r;
+            int head = 0, tail = 1;
+            while (head < tail) {
+                int y = queue[head++];
+                if (dist[y] == maxDist) {
+                    continue;
+                }
+                for (int p = offsets[y]; p < offsets[y + 1]; p++) {
+                    int z = neighbors[p];
+                    if (z < r && dist[z] < 0) {
+                        dist[z] = dist[y] + 1;
+                        parent[z] = y;
+                        branch[z] = (y == r) ? z : branch[y];
+                        queue[tail++] = z;
+                    }
+                }
+            }
+            for (int k = 1; k < tail; k++) {
+                int y = queue[k];
+                int numPreds = 0;
+                for (int p = offsets[y]; p < offsets[y + 1]; p++) {
+                    int z = neighbors[p];
+                    if (z > r || dist[z] < 0) {
+                        continue;
+                    }
+                    if (dist[z] + 1 == dist[y]) {
+                        if (numPreds == preds.length) {
+                            preds = Arrays.copyOf(preds, 2 * numPreds);
+                        }
+                        preds[numPreds++] = z;
+                    } else if (dist[z] == dist[y] && z < y && branch[z] != branch[y]) {
+                        // Odd ring closed by the bond y-z.
+                        int size = 2 * dist[y] + 1;
+                        if (size > minSize && size <= maxSize) {
+                            candidates.add(ring(y, -1, z, parent, dist));
+                        }
+                    }
+                }
+                int size = 2 * dist[y];
+                if (size <= minSize) {
+                    continue;
+                }
+                for (int a = 0; a < numPreds; a++) {
+                    for (int b = a + 1; b < numPreds; b++) {
+                        if (branch[preds[a]] != branch[preds[b]]) {
+                            // Even ring closed by the atom y.
+                            candidates.add(ring(preds[a], y, preds[b], parent, dist));
+                        }
+                    }
                 }
             }
-            paths = newpaths;
+            for (int k = 0; k < tail; k++) {
+                dist[queue[k]] = -1;
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Ring from the root along the path to a, through middle if not -1, and
+     * back along the path from b.
+     */
+    private static int[] ring(int a, int middle, int b, int[] parent, int[] dist) {
+        int size = dist[a] + dist[b] + ((middle < 0) ? 1 : 2);
+        int[] ring = new int[size];
+        int k = dist[a];
+        for (int v = a; k >= 0; v = parent[v]) {
+            ring[k--] = v;
+        }
+        k = dist[a] + 1;
+        if (middle >= 0) {
+            ring[k++] = middle;
+        }
+        for (int v = b; k < size; v = parent[v]) {
+            ring[k++] = v;
         }
+        return ring;
+    }
 
-        return new Stack<Atom>();
+    /**
+     * @return Number of connected components of the network.
+     */
+    private int numComponents() {
+        int n = mol.size();
+        boolean[] visited = new boolean[n];
+        int[] stack = new int[n];
+        int components = 0;
+        for (int i = 0; i < n; i++) {
+            if (visited[i]) {
+                continue;
+            }
+            components++;
+            visited[i] = true;
+            stack[0] = i;
+            int top = 1;
+            while (top > 0) {
+                int atom = stack[--top];
+                for (int p = offsets[atom]; p < offsets[atom + 1]; p++) {
+                    if (!visited[neighbors[p]]) {
+                        visited[neighbors[p]] = true;
+                        stack[top++] = neighbors[p];
+                    }
+                }
+            }
+        }
+        return components;
     }
 
     public List<Atom> getNetwork(Atom anchorAtom, Atom axialAtom) {
+        return getNetwork(mol.indexOf(anchorAtom), mol.indexOf(axialAtom));
+    }
 
-        return getTree(anchorAtom, axialAtom, new ArrayList<Atom>());
+    /**
+     * Returns the atoms reached from the anchor atom through the axial atom,
+     * i.e. the axial atom and everything bonded to it which is not reached
+     * through the anchor atom.
+     * @param anchorAtom Index of anchor atom.
+     * @param axialAtom Index of axial atom.
+     * @return Atoms of network in depth first order, starting with the axial
+     * atom.
+     */
+    public List<Atom> getNetwork(int anchorAtom, int axialAtom) {
+        int[] order = traverse(anchorAtom, axialAtom);
+        List<Atom> network = new ArrayList<Atom>(order.length);
+        for (int i : order) {
+            network.add(mol.get(i));
+        }
+        return network;
+    }
+
+    /**
+     * Returns the side of the bond from the anchor atom to the axial atom,
+     * i.e. the axial atom and all atoms reached from it without passing
+     * through the anchor atom.  If the bond is in a ring, this includes
+     * everything on the ring but the anchor atom.
+     * @param anchorAtom Index of anchor atom.
+     * @param axialAtom Index of axial atom.
+     * @return Indices of atoms on the axial side.
+     */
+    public BitSet getSide(int anchorAtom, int axialAtom) {
+        BitSet side = new BitSet(mol.size());
+        for (int i : traverse(anchorAtom, axialAtom)) {
+            side.set(i);
+        }
+        return side;
     }
 
-    private List<Atom> getTree(Atom anchorAtom, Atom axialAtom, List<Atom> history) {
-        history.add(anchorAtom);
-        history.add(axialAtom);
-        List<Atom> network = new ArrayList<Atom>();
-        network.add(axialAtom);
-        List<Atom> connectedatoms = getAdjacentAtoms(axialAtom);
-        for (Atom at : connectedatoms) {
-            if (!history.contains(at)) {
-                network.addAll(getTree(axialAtom, at, history));
+    /**
+     * Depth first traversal from the axial atom which never enters the
+     * anchor atom.  An explicit stack of atoms and their next unvisited
+     * neighbour is used, so arbitrarily long chains cannot overflow the call
+     * stack, and each atom and bond is only visited once.
+     * @return Indices of atoms in the order they are reached.
+     */
+    private int[] traverse(int anchorAtom, int axialAtom) {
+        BitSet visited = new BitSet(mol.size());
+        visited.set(anchorAtom);
+        visited.set(axialAtom);
+        int[] order = new int[mol.size()];
+        int count = 0;
+        int[] stack = new int[mol.size()];
+        int[] next = new int[mol.size()];
+        order[count++] = axialAtom;
+        stack[0] = axialAtom;
+        next[0] = offsets[axialAtom];
+        int top = 1;
+        while (top > 0) {
+            int atom = stack[top - 1];
+            if (next[top - 1] == offsets[atom + 1]) {
+                top--;
+                continue;
+            }
+            int adj = neighbors[next[top - 1]++];
+            if (!visited.get(adj)) {
+                visited.set(adj);
+                order[count++] = adj;
+                stack[top] = adj;
+                next[top] = offsets[adj];
+                top++;
             }
         }
-        return network;
+        return Arrays.copyOf(order, count);
+    }
+
+    /**
+     * Finds all rotatable bonds, i.e. bonds not in any ring between two
+     * non-terminal atoms, and the side of each, in a single depth first
+     * traversal.  Removing such a bond splits its part of the network into
+     * two fragments, and its side is the fragment of the second atom.
+     * Sides are contiguous ranges of the traversal order, so the sides of all
+     * bonds together only take space linear in the number of atoms.
+     * @return Rotatable bonds in traversal order.
+     */
+    public List<RotatableBond> getRotatableBonds() {
+        int n = mol.size();
+        int[] order = new int[n];
+        int[] pre = new int[n];
+        int[] low = new int[n];
+        int[] subtreeSize = new int[n];
+        int[] stack = new int[n];
+        int[] next = new int[n];
+        Arrays.fill(pre, -1);
+        List<RotatableBond> bonds = new ArrayList<RotatableBond>();
+        int count = 0;
+        for (int root = 0; root < n; root++) {
+            if (pre[root] >= 0) {
+                continue;
+            }
+            pre[root] = low[root] = count;
+            order[count++] = root;
+            stack[0] = root;
+            next[0] = offsets[root];
+            int top = 1;
+            while (top > 0) {
+                int atom = stack[top - 1];
+                int parent = (top > 1) ? stack[top - 2] : -1;
+                if (next[top - 1] < offsets[atom + 1]) {
+                    int adj = neighbors[next[top - 1]++];
+                    if (pre[adj] < 0) {
+                        pre[adj] = low[adj] = count;
+                        order[count++] = adj;
+                        stack[top] = adj;
+                        next[top] = offsets[adj];
+                        top++;
+                    } else if (adj != parent) {
+                        low[atom] = Math.min(low[atom], pre[adj]);
+                    }
+                } else {
+                    // All neighbours done, so the subtree of atom is complete.
+                    top--;
+                    subtreeSize[atom] = count - pre[atom];
+                    if (parent >= 0) {
+                        low[parent] = Math.min(low[parent], low[atom]);
+                        if (low[atom] > pre[parent] && degree(atom) > 1 && degree(parent) > 1) {
+                            bonds.add(new RotatableBond(parent, atom, order, pre[atom], subtreeSize[atom], pre));
+                        }
+                    }
+                }
+            }
+        }
+        // Bonds are found as their subtrees complete, so restore the order in
+        // which they were entered.
+        Collections.sort(bonds, RotatableBond.BY_ORDER);
+        return bonds;
+    }
+
+    /**
+     * A rotatable bond and the atoms on the side of its second atom, as found
+     * by {@link #getRotatableBonds()}.  All bonds share the traversal arrays,
+     * which must not be modified.
+     */
+    public static final class RotatableBond {
+
+        private static final Comparator<RotatableBond> BY_ORDER = new Comparator<RotatableBond>() {
+
+            @Override
+            public int compare(RotatableBond a, RotatableBond b) {
+                return (a.start < b.start) ? -1 : ((a.start == b.start) ? 0 : 1);
+            }
+        };
+        private final int atom1, atom2;
+        private final int[] order;
+        private final int start, size;
+        private final int[] pre;
+
+        private RotatableBond(int atom1_in, int atom2_in, int[] order_in, int start_in, int size_in, int[] pre_in) {
+            atom1 = atom1_in;
+            atom2 = atom2_in;
+            order = order_in;
+            start = start_in;
+            size = size_in;
+            pre = pre_in;
+        }
+
+        /**
+         * @return Index of first atom of bond.
+         */
+        public int getAtom1() {
+            return atom1;
+        }
+
+        /**
+         * @return Index of second atom of bond.
+         */
+        public int getAtom2() {
+            return atom2;
+        }
+
+        /**
+         * @return Number of atoms on the side of the second atom.
+         */
+        public int getSideSize() {
+            return size;
+        }
+
+        /**
+         * @return Indices of atoms on the side of the second atom, starting
+         * with the second atom.
+         */
+        public int[] getSide() {
+            return Arrays.copyOfRange(order, start, start + size);
+        }
+
+        /**
+         * @param atomIndex Index of atom.
+         * @return True if atom is on the side of the second atom.
+         */
+        public boolean isOnSide(int atomIndex) {
+            return pre[atomIndex] >= start && pre[atomIndex] < start + size;
+        }
+    }
+
+    /**
+     * @return Molecule of network.
+     */
+    public Molecule getMolecule() {
+        return mol;
     }
 
     /**
-     * Returns the adjacency list of the provided atom
+     * @param atomIndex Index of atom.
+     * @return Number of atoms bonded to atom.
+     */
+    public int degree(int atomIndex) {
+        return offsets[atomIndex + 1] - offsets[atomIndex];
+    }
+
+    /**
+     * @param atomIndex Index of atom.
+     * @param k Index of neighbour, from 0 to degree(atomIndex) - 1.
+     * @return Index of the k-th atom bonded to atom, in ascending order.
+     */
+    public int neighbor(int atomIndex, int k) {
+        if (k < 0 || k >= degree(atomIndex)) {
+            throw new IndexOutOfBoundsException("Atom " + atomIndex + " has no neighbour " + k);
+        }
+        return neighbors[offsets[atomIndex] + k];
+    }
+
+    /**
+     * @param atomIndex Index of atom.
+     * @return Indices of atoms bonded to atom in ascending order.
+     */
+    public int[] neighbors(int atomIndex) {
+        return Arrays.copyOfRange(neighbors, offsets[atomIndex], offsets[atomIndex + 1]);
+    }
+
+    /**
+     * @param atomIndex1 Index of first atom.
+     * @param atomIndex2 Index of second atom.
+     * @return True if the atoms are bonded.
+     */
+    public boolean isBonded(int atomIndex1, int atomIndex2) {
+        return Arrays.binarySearch(neighbors, offsets[atomIndex1], offsets[atomIndex1 + 1], atomIndex2) >= 0;
+    }
+
+    /**
+     * Returns the adjacency list of the provided atom.  Finding the atom is
+     * linear in the size of the Molecule, so index based callers should use
+     * {@link #neighbors(int)} instead.
      * @param at
-     * @return List of adjacent atoms
+     * @return List of adjacent atoms, or null if at is not in the Molecule.
      */
     public List<Atom> getAdjacentAtoms(Atom at) {
-        return adjacencyList.get(at);
+        int i = mol.indexOf(at);
+        if (i < 0) {
+            return null;
+        }
+        List<Atom> adjAtoms = new ArrayList<Atom>(degree(i));
+        for (int p = offsets[i]; p < offsets[i + 1]; p++) {
+            adjAtoms.add(mol.get(neighbors[p]));
+        }
+        return adjAtoms;
     }
 
     @Override
     public String toString() {
         StringBuilder sBuilder = new StringBuilder();
-        for (Atom at : mol) {
-            sBuilder.append(at.getSpecies().toString() + mol.indexOf(at));
+        for (int i = 0, n = mol.size(); i < n; i++) {
+            sBuilder.append(mol.getAtomSpecies(i).toString() + i);
             sBuilder.append("\n");
-            for (Atom adjAt : getAdjacentAtoms(at)) {
-                sBuilder.append("\t" + adjAt.getSpecies().toString() + mol.indexOf(adjAt) + "\n");
+            for (int p = offsets[i]; p < offsets[i + 1]; p++) {
+                sBuilder.append("\t" + mol.getAtomSpecies(neighbors[p]).toString() + neighbors[p] + "\n");
             }
         }
         return sBuilder.toString();
     }
 
-    private Map<Atom, String> getUniqueLabels() {
-        Map<Atom, Integer> labels = new HashMap<Atom, Integer>();
-        for (Atom at : adjacencyList.keySet()) {
-            labels.put(at, getAdjacentAtoms(at).size());
+    /**
+     * Returns canonical classes of the atoms by Weisfeiler-Lehman (Morgan)
+     * refinement.  Atoms are first classed by species, then repeatedly by
+     * their class together with the multiset of classes of their neighbours,
+     * until the classes stop splitting.  Classes are numbered in the order in
+     * which they split off, with split classes ordered by these labels, so
+     * they depend only on the topology and not on the order of atoms in the
+     * Molecule: atoms of two isomorphic networks which correspond have the
+     * same class.  Atoms related by a symmetry of the network always share a
+     * class, but refinement may fail to separate some atoms which are not,
+     * e.g. in regular networks.
+     * @return Class of each atom, from 0 to the number of classes - 1.
+     */
+    public int[] getAtomClasses() {
+        if (atomClasses == null) {
+            refineClasses();
+        }
+        return atomClasses.clone();
+    }
+
+    /**
+     * Returns a 64 bit hash of the topology of the network, computed from the
+     * number of atoms in each canonical class and the species and neighbour
+     * classes of the class.  Isomorphic networks, i.e. the same bonding with
+     * atoms in any order, have the same hash, so libraries of molecules can
+     * be bucketed by topology in O(n log^2 n) per molecule.  Molecules with
+     * the same hash are not necessarily isomorphic.
+     * @return Topology hash.
+     * @see #getAtomClasses()
+     */
+    public long getTopologyHash() {
+        if (atomClasses == null) {
+            refineClasses();
         }
+        return topologyHash;
+    }
 
-        while (true) {
-            int numUnique = numUniqueLabels(labels);
-            Map<Atom, Integer> newLabels = new HashMap<Atom, Integer>();
-            for (Atom at : labels.keySet()) {
-                int newNum = 0;
-                for (Atom adjAt : getAdjacentAtoms(at)) {
-                    newNum += labels.get(adjAt);
+    /*
+     * Classes are refined as cells of a partition, with the atoms of each
+     * cell contiguous in order.  The first round sorts all atoms by species
+     * and degree.  After that, the label of an atom can only change if a
+     * neighbour changed cell in the previous round, so each round only sorts
+     * those atoms, cell by cell, together with one atom of the cell standing
+     * for all the others, whose labels are unchanged and equal.  Labels are
+     * computed from the cells at the start of the round.  When a cell
+     * splits, its largest part keeps the cell id and the other parts get new
+     * ids, in order of cell id and label.  An atom therefore only changes id
+     * when its cell at least halves, i.e. at most log n times, and the
+     * refinement takes O(n log^2 n) for atoms with a bounded number of bonds,
+     * however many rounds are needed, e.g. for long chains.
+     */
+    private void refineClasses() {
+        int n = mol.size();
+        int[] cell = new int[n];
+        int[] order = new int[n];
+        int[] position = new int[n];
+        int[] cellStart = new int[Math.max(n, 1)];
+        int[] cellEnd = new int[Math.max(n, 1)];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+            position[i] = i;
+        }
+        cellEnd[0] = n;
+        int numCells = (n > 0) ? 1 : 0;
+        int[] adjClasses = new int[neighbors.length];
+        // Scratch space for the atoms sorted in a round, at most one atom
+        // more than the affected atoms for each touched cell.
+        int[] work = new int[2 * n];
+        int[] buffer = new int[2 * n];
+        int[] affected = new int[n];
+        int[] changed = new int[n];
+        int numChanged = 0;
+        int[] stamp = new int[n];
+        int[] affectedCount = new int[Math.max(n, 1)];
+        int[] slot = new int[Math.max(n, 1)];
+        int[] touched = new int[n];
+        int[] workStart = new int[n + 1];
+        int[] fill = new int[n];
+        int[] representative = new int[n];
+        for (int round = 1; ; round++) {
+            int numAffected = 0;
+            if (round == 1) {
+                for (int i = 0; i < n; i++) {
+                    affected[numAffected++] = i;
                 }
-                newLabels.put(at, newNum);
-            }
-            if (numUniqueLabels(newLabels) > numUnique) {
-                labels = newLabels;
             } else {
+                for (int k = 0; k < numChanged; k++) {
+                    int u = changed[k];
+                    for (int p = offsets[u]; p < offsets[u + 1]; p++) {
+                        int w = neighbors[p];
+                        if (stamp[w] != round) {
+                            stamp[w] = round;
+                            affected[numAffected++] = w;
+                        }
+                    }
+                }
+            }
+            if (numAffected == 0) {
                 break;
             }
-        }
-        labels=reassignLabels(labels);
-        Map<Atom, String> strLabels = new HashMap<Atom, String>();
-        for (Atom at : labels.keySet()) {
-            String label = at.getSpecies() + Integer.toString(labels.get(at));
-            strLabels.put(at, label);
-        }
-        return strLabels;
 
-    }
+            // Group the affected atoms by cell, in order of cell id, and
+            // move them to the end of their cell so that the first atom of
+            // the cell is unaffected, if any is.
+            int numTouched = 0;
+            for (int k = 0; k < numAffected; k++) {
+                int c = cell[affected[k]];
+                if (affectedCount[c]++ == 0) {
+                    touched[numTouched++] = c;
+                }
+            }
+            Arrays.sort(touched, 0, numTouched);
+            int w = 0;
+            for (int t = 0; t < numTouched; t++) {
+                int c = touched[t];
+                slot[c] = t;
+                workStart[t] = w;
+                fill[t] = w;
+                boolean hasUnaffected = affectedCount[c] < cellEnd[c] - cellStart[c];
+                w += affectedCount[c] + (hasUnaffected ? 1 : 0);
+                representative[t] = cellEnd[c];
+            }
+            workStart[numTouched] = w;
+            for (int k = 0; k < numAffected; k++) {
+                int a = affected[k];
+                int t = slot[cell[a]];
+                work[fill[t]++] = a;
+                int q = --representative[t];
+                int b = order[q];
+                int pa = position[a];
+                order[pa] = b;
+                position[b] = pa;
+                order[q] = a;
+                position[a] = q;
+            }
+            for (int t = 0; t < numTouched; t++) {
+                int c = touched[t];
+                representative[t] = -1;
+                if (fill[t] < workStart[t + 1]) {
+                    representative[t] = order[cellStart[c]];
+                    work[fill[t]] = representative[t];
+                }
+            }
+            for (int k = 0; k < w; k++) {
+                int i = work[k];
+                for (int p = offsets[i]; p < offsets[i + 1]; p++) {
+                    adjClasses[p] = cell[neighbors[p]];
+                }
+                Arrays.sort(adjClasses, offsets[i], offsets[i + 1]);
+            }
+            for (int t = 0; t < numTouched; t++) {
+                mergeSort(work, buffer, workStart[t], workStart[t + 1], cell, adjClasses);
+            }
 
-    private Map<Atom, Integer> reassignLabels(Map<Atom, Integer> originalLabels) {
-        TreeSet<Integer> values = new TreeSet<Integer>(originalLabels.values());
-        Map<Atom, Integer> newLabels = new HashMap<Atom, Integer>();
-        int counter = 1;
-        int currPos = 0;
-        System.out.println(originalLabels.size());
-        while (counter <= originalLabels.size()) {
-            
-            if (currPos == 0) {
-                List<Atom> startAtoms = new ArrayList<Atom>();
-                for (Atom at : originalLabels.keySet()) {
-                    if (originalLabels.get(at) == values.last()) {
-                        startAtoms.add(at);
-                        
+            // Split the touched cells.
+            numChanged = 0;
+            for (int t = 0; t < numTouched; t++) {
+                int c = touched[t];
+                int from = workStart[t];
+                int to = workStart[t + 1];
+                int rep = representative[t];
+                int unaffected = cellEnd[c] - cellStart[c] - affectedCount[c];
+                affectedCount[c] = 0;
+                // Find the largest group of equal labels, counting all
+                // unaffected atoms in the group of the representative.
+                int keeper = from;
+                int keeperSize = 0;
+                boolean split = false;
+                for (int g = from; g < to; ) {
+                    int end = groupEnd(work, g, to, cell, adjClasses);
+                    int size = end - g;
+                    for (int k = g; k < end; k++) {
+                        if (work[k] == rep) {
+                            size += unaffected - 1;
+                        }
                     }
+                    if (size > keeperSize) {
+                        keeper = g;
+                        keeperSize = size;
+                    }
+                    split |= (g > from || end < to);
+                    g = end;
                 }
-                Collections.sort(startAtoms);
-                for (Atom at : startAtoms)
-                {
-                    newLabels.put(at, counter);
-                    counter++;
+                if (!split) {
+                    continue;
                 }
-                currPos++;
-            } else {
-
-                Atom at = reverseLookup(newLabels,currPos);
-                System.out.println(at.getSpecies()+Integer.toString(originalLabels.get(at)));
-                System.out.println(at.getSpecies()+Integer.toString(newLabels.get(at)));
-                System.out.println(newLabels.size());
-                currPos++;
-                Map<Atom,Integer> adjLabels = new HashMap<Atom,Integer>();
-                List<Atom> adjAtoms = getAdjacentAtoms(at);
-                Collections.sort(adjAtoms);
-                for (Atom adjAt : adjAtoms)
-                {
-                    if (!newLabels.containsKey(adjAt))
-                    {
-                        adjLabels.put(adjAt, originalLabels.get(adjAt));
+                // The unaffected atoms are at the start of the cell.  If they
+                // change cell, they are copied out and rewritten.
+                int keeperEnd = groupEnd(work, keeper, to, cell, adjClasses);
+                boolean keeperHasRep = false;
+                for (int k = keeper; k < keeperEnd; k++) {
+                    keeperHasRep |= (work[k] == rep);
+                }
+                int q = cellStart[c];
+                if (keeperHasRep) {
+                    q += unaffected;
+                } else {
+                    System.arraycopy(order, cellStart[c], buffer, 0, unaffected);
+                }
+                for (int k = keeper; k < keeperEnd; k++) {
+                    if (work[k] != rep) {
+                        order[q] = work[k];
+                        position[work[k]] = q++;
                     }
                 }
-                TreeSet<Integer> adjValues = new TreeSet<Integer>(adjLabels.values());
-                while (!adjValues.isEmpty()){
-                    for (Atom at3 : adjLabels.keySet()) {
-                        if (originalLabels.get(at3) == adjValues.last()) {
-                            newLabels.put(at3, counter);
-                            counter++;
-                            
+                cellEnd[c] = q;
+                for (int g = from; g < to; ) {
+                    int end = groupEnd(work, g, to, cell, adjClasses);
+                    // Labels of a group are compared before its atoms move.
+                    if (g != keeper) {
+                        int id = numCells++;
+                        cellStart[id] = q;
+                        for (int k = g; k < end; k++) {
+                            if (work[k] == rep) {
+                                for (int m = 0; m < unaffected; m++) {
+                                    int a = buffer[m];
+                                    order[q] = a;
+                                    position[a] = q++;
+                                    cell[a] = id;
+                                    changed[numChanged++] = a;
+                                }
+                            } else {
+                                order[q] = work[k];
+                                position[work[k]] = q++;
+                                cell[work[k]] = id;
+                                changed[numChanged++] = work[k];
+                            }
                         }
+                        cellEnd[id] = q;
                     }
-                    adjValues.remove(adjValues.last());
+                    g = end;
                 }
             }
         }
 
-        return newLabels;
+        // Ids are assigned canonically and densely, so they are the classes.
+        // Each class is hashed once, since all its atoms have the same label.
+        long h = mixHash(mixHash(HASH_SEED, n), neighbors.length / 2);
+        int[] adj = new int[0];
+        for (int c = 0; c < numCells; c++) {
+            int rep = order[cellStart[c]];
+            int degree = degree(rep);
+            if (adj.length < degree) {
+                adj = new int[degree];
+            }
+            for (int k = 0; k < degree; k++) {
+                adj[k] = cell[neighbors[offsets[rep] + k]];
+            }
+            Arrays.sort(adj, 0, degree);
+            h = mixHash(h, cellEnd[c] - cellStart[c]);
+            h = mixHash(h, mol.getAtomSpecies(rep).getAtNo());
+            h = mixHash(h, degree);
+            for (int k = 0; k < degree; k++) {
+                h = mixHash(h, adj[k]);
+            }
+        }
+        // Final avalanche so that similar topologies differ in all bits.
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        topologyHash = h;
+        atomClasses = cell;
     }
 
-    private Atom reverseLookup(Map<Atom,Integer> map, int value)
-    {
-        for (Atom at : map.keySet())
-        {
-            if (map.get(at)==value)
-            {
-                    return at;
-            }
+    /* End of the group of atoms with the same label starting at from in a
+     * sorted range. */
+    private int groupEnd(int[] sorted, int from, int to, int[] classes, int[] adjClasses) {
+        int end = from + 1;
+        while (end < to && compareLabels(sorted[from], sorted[end], classes, adjClasses) == 0) {
+            end++;
         }
-        throw new IllegalArgumentException(value+" not found in map!");
+        return end;
+    }
+
+    private static long mixHash(long h, int value) {
+        return (h ^ value) * 0x100000001b3L;
     }
 
-    private int numUniqueLabels(Map<Atom, Integer> labels) {
-        List<Integer> currentLabels = new ArrayList<Integer>();
-        for (Atom at : labels.keySet()) {
-            int label = labels.get(at);
-            if (!currentLabels.contains(label)) {
-                currentLabels.add(label);
+    private int compareLabels(int i, int j, int[] classes, int[] adjClasses) {
+        if (classes[i] != classes[j]) {
+            return (classes[i] < classes[j]) ? -1 : 1;
+        }
+        int si = mol.getAtomSpecies(i).ordinal();
+        int sj = mol.getAtomSpecies(j).ordinal();
+        if (si != sj) {
+            return (si < sj) ? -1 : 1;
+        }
+        int di = degree(i);
+        int dj = degree(j);
+        if (di != dj) {
+            return (di < dj) ? -1 : 1;
+        }
+        for (int p = offsets[i], q = offsets[j], end = offsets[i + 1]; p < end; p++, q++) {
+            if (adjClasses[p] != adjClasses[q]) {
+                return (adjClasses[p] < adjClasses[q]) ? -1 : 1;
             }
         }
-        return currentLabels.size();
+        return 0;
     }
 
-//    public String getUniqueRep() {
-//
-//        Map<Atom, String> uniqueLabels = getUniqueLabels();
-//
-//        List<String> allLabels = new ArrayList<String>();
-//
-//        for (Atom at : mol) {
-//            String label = uniqueLabels.get(at) + "-";
-//            List<String> adjAtomStr = new ArrayList<String>();
-//            for (Atom adjAt : getAdjacentAtoms(at)) {
-//                adjAtomStr.add(uniqueLabels.get(adjAt));
-//            }
-//            Collections.sort(adjAtomStr);
-//            for (String str : adjAtomStr) {
-//                label += str;
-//            }
-//            allLabels.add(label);
-//        }
-//        Collections.sort(allLabels);
-//        StringBuilder sBuilder = new StringBuilder();
-//        for (String str : allLabels) {
-//            sBuilder.append(str + "\n");
-//        }
-//        return sBuilder.toString();
-//    }
+    /**
+     * Sorts order[from, to) by atom label, using buffer as scratch space.
+     */
+    private void mergeSort(int[] order, int[] buffer, int from, int to, int[] classes, int[] adjClasses) {
+        if (to - from < 2) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(order, buffer, from, mid, classes, adjClasses);
+        mergeSort(order, buffer, mid, to, classes, adjClasses);
+        if (compareLabels(order[mid - 1], order[mid], classes, adjClasses) <= 0) {
+            return;
+        }
+        System.arraycopy(order, from, buffer, from, to - from);
+        for (int k = from, a = from, b = mid; k < to; k++) {
+            if (b >= to || (a < mid && compareLabels(buffer[a], buffer[b], classes, adjClasses) <= 0)) {
+                order[k] = buffer[a++];
+            } else {
+                order[k] = buffer[b++];
+            }
+        }
+    }
 }
@@ -1,19 +1,25 @@
 package net.shyue.smurf.Analyzers;
 
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import javax.vecmath.Point3d;
 
 /**
  * Object representation of a point group.  Collects symmetry operations 
- * pertaining to a group and the Schoeflies symbol.
+ * pertaining to a group and the Schoeflies symbol.  Point groups are
+ * immutable, so that they may be shared, e.g. by SymmetryAnalyzerCache.
  * @author shyue
  * @version 1.0
  */
-public final class PointGroup implements Iterable<SymmetryOperation>{
+public final class PointGroup implements Iterable<SymmetryOperation>, Serializable {
 
-    private List<SymmetryOperation> operations;
-    private String schSymbol;
+    private static final long serialVersionUID = 1L;
+    private final List<SymmetryOperation> operations;
+    private final String schSymbol;
+    private final int[][] multiplicationTable;
     
     /**
      * Creates instance of point group.
@@ -21,13 +27,26 @@ public final class PointGroup implements Iterable<SymmetryOperation>{
      * @param symbol_in Schoenflies Symbol.
      */
     public PointGroup(String symbol_in, List<SymmetryOperation> ops_in){
-        operations = ops_in;
+        this(symbol_in, ops_in, null);
+    }
+
+    /**
+     * Creates instance of point group with a known multiplication table.
+     * @param symbol_in Schoenflies Symbol.
+     * @param ops_in Collection of symmetry operations.
+     * @param table_in Multiplication table, where entry [i][j] is the index in
+     * ops_in of the product of operations i and j.  May be null if unknown.
+     */
+    public PointGroup(String symbol_in, List<SymmetryOperation> ops_in, int[][] table_in){
+        operations = Collections.unmodifiableList(new ArrayList<SymmetryOperation>(ops_in));
         schSymbol = symbol_in;
+        multiplicationTable = (table_in == null) ? null : copyTable(table_in);
     }
    
     /**
      * 
-     * @return Full set of symmetry operations in point group.
+     * @return Unmodifiable list of the full set of symmetry operations in
+     * point group.
      */
     public List<SymmetryOperation> getOperations(){
         return operations;
@@ -41,6 +60,25 @@ public final class PointGroup implements Iterable<SymmetryOperation>{
         return schSymbol;
     }
   
+    /**
+     * Returns the Cayley table of the group.  Entry [i][j] is the index of the
+     * product of operations i and j in {@link #getOperations()}, with -1 for
+     * products that are not in the group.
+     * @return Copy of the multiplication table, or null if it is not known,
+     * e.g. if closure of the detected operations failed.
+     */
+    public int[][] getMultiplicationTable(){
+        return (multiplicationTable == null) ? null : copyTable(multiplicationTable);
+    }
+
+    private static int[][] copyTable(int[][] table_in) {
+        int[][] table = new int[table_in.length][];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = table_in[i].clone();
+        }
+        return table;
+    }
+
     /**
      * Tests if two positions are symmetrically equivalent under point group within a provided tolerance.
      * @param a First comparison Point3d.
@@ -50,10 +88,14 @@ public final class PointGroup implements Iterable<SymmetryOperation>{
      */
     public boolean isSymmetricallyEquivalent(Point3d a, Point3d b, double tolerance){
         boolean isequivalent = false;
+        double[] testcoord = new double[3];
         for (SymmetryOperation key : operations)
         {
-           Point3d testcoord = key.transformPoint(a);
-           if (testcoord.distance(b)<tolerance)
+           key.transformInto(a.x, a.y, a.z, testcoord);
+           double dx = testcoord[0] - b.x;
+           double dy = testcoord[1] - b.y;
+           double dz = testcoord[2] - b.z;
+           if (dx * dx + dy * dy + dz * dz < tolerance * tolerance)
            {
                isequivalent = true;
                break;
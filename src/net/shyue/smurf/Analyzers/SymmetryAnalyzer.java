@@ -4,13 +4,25 @@ import net.shyue.smurf.Structure.*;
 import Jama.EigenvalueDecomposition;
 import Jama.Matrix;
 import net.shyue.smurf.Utils.CollectionBinner;
-import net.shyue.smurf.Utils.DistanceSimilarityComparator;
-import net.shyue.smurf.Utils.SpeciesSimilarityComparator;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import javax.vecmath.Point3d;
 import javax.vecmath.Vector3d;
 import static java.lang.Math.*;
@@ -28,14 +40,53 @@ public final class SymmetryAnalyzer {
     private Molecule mol;
     private Atom origin_atom;
     private Map<Double, Map<Element, List<Atom>>> sortedAtoms;
+    /**
+     * Cell lists of the atoms of each species, for fast checking of sites.
+     */
+    private Map<Element, CellList> speciesSites;
+    /**
+     * Indices of atoms in the order they are checked when validating an
+     * operation.
+     */
+    private int[] validationOrder;
     private Map<Vector3d, Integer> rotSymmetries = new HashMap<Vector3d, Integer>();
     private Map<Vector3d, Double> principalAxes = new HashMap<Vector3d, Double>(3);
     private String schSymbol;
     private List<SymmetryOperation> detectedSymmetries;
     private PointGroup assignedPointGroup;
-    private double TOLERANCE = 0.3;
-    private double EIG_TOLERANCE = 0.01;
-    private double MATRIX_TOLERANCE = 0.1;
+    /**
+     * Symmetry orbits of the atoms and the orbit of each atom, computed on
+     * first use.
+     */
+    private List<int[]> orbits;
+    private int[] orbitId;
+    /**
+     * Default tolerances for matching atom sites in Angstroms, for comparing
+     * principal moments of inertia and for comparing matrix elements of
+     * symmetry operations.
+     */
+    public static final double DEFAULT_TOLERANCE = 0.3;
+    public static final double DEFAULT_EIG_TOLERANCE = 0.01;
+    public static final double DEFAULT_MATRIX_TOLERANCE = 0.1;
+    private final double TOLERANCE;
+    private final double EIG_TOLERANCE;
+    private final double MATRIX_TOLERANCE;
+    /**
+     * Work shared with the analyzers for other tolerances in a sweep, or null
+     * if this analyzer is not part of a sweep.
+     */
+    private final ToleranceSweep sweep;
+    /**
+     * Largest point group order accepted before closure is abandoned.  Ih,
+     * the largest of the non-axial point groups, has 120 operations.
+     */
+    private static final int MAX_OPERATIONS = 200;
+    /**
+     * Resolution of the unit axis directions used to deduplicate candidate
+     * axes, and the corresponding number of bins on each side of zero.
+     */
+    private static final double AXIS_RESOLUTION = 1e-4;
+    private static final long AXIS_BINS = 10000;
     private Logger log;
 
     public SymmetryAnalyzer(Molecule mol_in) {
@@ -48,6 +99,33 @@ public final class SymmetryAnalyzer {
      * @param logLevel 
      */
     public SymmetryAnalyzer(Molecule mol_in, Level logLevel) {
+        this(mol_in, logLevel, DEFAULT_TOLERANCE, DEFAULT_EIG_TOLERANCE, DEFAULT_MATRIX_TOLERANCE, null);
+    }
+
+    /**
+     * Constructor for new analyzer with custom tolerances.
+     * @param mol_in Molecule to be analyzed.
+     * @param tolerance Tolerance in Angstroms for an operation to map an atom
+     * onto another.  Scaled up by the distance from the center of mass for
+     * atoms further than 1 Angstrom away.  Default is 0.3.
+     * @param eigTolerance Tolerance for normalized principal moments of
+     * inertia to be considered equal.  Default is 0.01.
+     * @param matrixTolerance Tolerance for matrix elements of symmetry
+     * operations to be considered equal.  Default is 0.1.
+     */
+    public SymmetryAnalyzer(Molecule mol_in, double tolerance, double eigTolerance, double matrixTolerance) {
+        this(mol_in, Level.OFF, tolerance, eigTolerance, matrixTolerance, null);
+    }
+
+    private SymmetryAnalyzer(Molecule mol_in, Level logLevel, double tolerance, double eigTolerance,
+            double matrixTolerance, ToleranceSweep sweep_in) {
+        if (!(tolerance > 0) || !(eigTolerance > 0) || !(matrixTolerance > 0)) {
+            throw new IllegalArgumentException("Tolerances must be positive!");
+        }
+        TOLERANCE = tolerance;
+        EIG_TOLERANCE = eigTolerance;
+        MATRIX_TOLERANCE = matrixTolerance;
+        sweep = sweep_in;
         log = Logger.getLogger("Symmetry detection log");
         log.setLevel(logLevel);
         detectedSymmetries = new ArrayList<SymmetryOperation>(128);
@@ -58,45 +136,66 @@ public final class SymmetryAnalyzer {
         } else {
             /**
              * Center Molecule about center of mass, which must be a special
-             * symmetry point.
+             * symmetry point.  A sweep has centered it already.
              */
-            mol = mol_in.getCenteredCopy();
+            mol = (sweep == null) ? mol_in.getCenteredCopy() : sweep.mol;
+            indexSites();
             sortAtoms();
-            processMolecule();
-            assignedPointGroup = new PointGroup(schSymbol, generateFullSymmetrySet(detectedSymmetries));
+            computeValidationOrder();
+            if (sweep == null) {
+                processMolecule(new Inertia(mol));
+            } else {
+                processMolecule(sweep.inertia);
+            }
+            assignedPointGroup = generatePointGroup(detectedSymmetries);
             log.info("Number of symmetry operations : " + assignedPointGroup.getOperations().size());
         }
     }
 
-    private void processMolecule() {
-        // Calculate Inertia Tensor
-        double Ixx, Iyy, Izz, Ixy, Iyz, Ixz, TotalI, AtWt, x, y, z;
-        Ixx = Iyy = Izz = Ixy = Iyz = Ixz = TotalI = 0;
-        for (Atom at : mol) {
-            AtWt = at.getAtWt();
-            x = at.getCoord().x;
-            y = at.getCoord().y;
-            z = at.getCoord().z;
-            Ixx += AtWt * (pow(y, 2) + pow(z, 2));
-            Iyy += AtWt * (pow(x, 2) + pow(z, 2));
-            Izz += AtWt * (pow(x, 2) + pow(y, 2));
-            Ixy += -AtWt * x * y;
-            Iyz += -AtWt * y * z;
-            Ixz += -AtWt * x * z;
-            TotalI += AtWt * (pow(x, 2) + pow(y, 2) + pow(z, 2));
-        }
-        double[][] Imat = {{Ixx, Ixy, Ixz}, {Ixy, Iyy, Iyz}, {Ixz, Iyz, Izz}};
-        Matrix inertiaTensor = new Matrix(Imat);
-
-        /**
-         * Normalize the inertia tensor so that it does not scale with size of the
-         * system.  This mitigates the problem of choosing a proper comparison
-         * tolerance for the eigenvalues.
-         **/
-        inertiaTensor = inertiaTensor.times(1.0 / TotalI);
-        EigenvalueDecomposition EVD = inertiaTensor.eig();
-        double[] eigenvalues_I = EVD.getRealEigenvalues();
-        Matrix principalDirections = EVD.getV();
+    /**
+     * Analyzes the symmetry of a Molecule at several site tolerances at once,
+     * e.g. to judge how robust the assigned point group is.  The Molecule is
+     * centered and its moments of inertia computed only once.  The outcome of
+     * testing each candidate symmetry operation is shared, so that e.g. an
+     * operation found valid for one tolerance is not tested again for larger
+     * ones.
+     * The other tolerances take their default values.
+     * @param mol_in Molecule to be analyzed.
+     * @param tolerances Site tolerances in Angstroms.
+     * @return Analyzer for each distinct tolerance, in the order given.
+     */
+    public static Map<Double, SymmetryAnalyzer> sweep(Molecule mol_in, double... tolerances) {
+        Map<Double, SymmetryAnalyzer> analyzers = new LinkedHashMap<Double, SymmetryAnalyzer>();
+        for (double tol : tolerances) {
+            if (!(tol > 0)) {
+                throw new IllegalArgumentException("Tolerances must be positive!");
+            }
+        }
+        ToleranceSweep shared = null;
+        if (mol_in.size() > 1 && tolerances.length > 0) {
+            shared = new ToleranceSweep(mol_in.getCenteredCopy());
+        }
+        /* Operations found valid for a small tolerance need not be tested
+         * again for larger ones, and testing valid operations is the most
+         * expensive, so the smallest tolerance is analyzed first. */
+        double[] ascending = tolerances.clone();
+        Arrays.sort(ascending);
+        Map<Double, SymmetryAnalyzer> byTolerance = new HashMap<Double, SymmetryAnalyzer>();
+        for (double tol : ascending) {
+            if (!byTolerance.containsKey(tol)) {
+                byTolerance.put(tol, new SymmetryAnalyzer(mol_in, Level.OFF, tol, DEFAULT_EIG_TOLERANCE,
+                        DEFAULT_MATRIX_TOLERANCE, shared));
+            }
+        }
+        for (double tol : tolerances) {
+            analyzers.put(tol, byTolerance.get(tol));
+        }
+        return analyzers;
+    }
+
+    private void processMolecule(Inertia inertia) {
+        double[] eigenvalues_I = inertia.eigenvalues;
+        Matrix principalDirections = inertia.principalDirections;
         for (int i = 0; i < 3; i++) {
             principalAxes.put(new Vector3d(principalDirections.get(0, i), principalDirections.get(1, i), principalDirections.get(2, i)),
                     eigenvalues_I[i]);
@@ -128,26 +227,144 @@ public final class SymmetryAnalyzer {
 
     }
 
+    /* Principal moments and axes of inertia of a centered Molecule. */
+    private static final class Inertia {
+
+        private final double[] eigenvalues;
+        private final Matrix principalDirections;
+
+        Inertia(Molecule mol) {
+            // Calculate Inertia Tensor
+            double Ixx, Iyy, Izz, Ixy, Iyz, Ixz, TotalI, AtWt, x, y, z;
+            Ixx = Iyy = Izz = Ixy = Iyz = Ixz = TotalI = 0;
+            for (int i = 0, n = mol.size(); i < n; i++) {
+                AtWt = mol.getAtomSpecies(i).getAtWt();
+                x = mol.x(i);
+                y = mol.y(i);
+                z = mol.z(i);
+                Ixx += AtWt * (pow(y, 2) + pow(z, 2));
+                Iyy += AtWt * (pow(x, 2) + pow(z, 2));
+                Izz += AtWt * (pow(x, 2) + pow(y, 2));
+                Ixy += -AtWt * x * y;
+                Iyz += -AtWt * y * z;
+                Ixz += -AtWt * x * z;
+                TotalI += AtWt * (pow(x, 2) + pow(y, 2) + pow(z, 2));
+            }
+            double[][] Imat = {{Ixx, Ixy, Ixz}, {Ixy, Iyy, Iyz}, {Ixz, Iyz, Izz}};
+            Matrix inertiaTensor = new Matrix(Imat);
+
+            /**
+             * Normalize the inertia tensor so that it does not scale with size of the
+             * system.  This mitigates the problem of choosing a proper comparison
+             * tolerance for the eigenvalues.
+             **/
+            inertiaTensor = inertiaTensor.times(1.0 / TotalI);
+            EigenvalueDecomposition EVD = inertiaTensor.eig();
+            eigenvalues = EVD.getRealEigenvalues();
+            principalDirections = EVD.getV();
+        }
+    }
+
+    /* Work shared by the analyzers of a tolerance sweep: the centered
+     * Molecule, its moments of inertia and bounds on the deviation of all
+     * operations tested so far.  An operation valid for a tolerance is also
+     * valid for all larger ones, so each operation records the largest
+     * tolerance for which it was found invalid and the smallest for which it
+     * was found valid.  Analyzers only test an operation if these do not
+     * already decide it.  Thread safe.
+     */
+    private static final class ToleranceSweep {
+
+        private final Molecule mol;
+        private final Inertia inertia;
+        private final ConcurrentMap<DeviationKey, DeviationBounds> deviations =
+                new ConcurrentHashMap<DeviationKey, DeviationBounds>();
+
+        ToleranceSweep(Molecule centered) {
+            mol = centered;
+            inertia = new Inertia(mol);
+        }
+
+        /* Validity of operation for tolerance if known, otherwise null. */
+        Boolean getValidity(DeviationKey key, double tolerance) {
+            DeviationBounds bounds = deviations.get(key);
+            return (bounds == null) ? null : bounds.getValidity(tolerance);
+        }
+
+        void record(DeviationKey key, double tolerance, boolean valid) {
+            DeviationBounds bounds = deviations.get(key);
+            if (bounds == null) {
+                DeviationBounds newBounds = new DeviationBounds();
+                bounds = deviations.putIfAbsent(key, newBounds);
+                if (bounds == null) {
+                    bounds = newBounds;
+                }
+            }
+            bounds.record(tolerance, valid);
+        }
+    }
+
+    private static final class DeviationBounds {
+
+        private double invalidUpTo = Double.NEGATIVE_INFINITY;
+        private double validFrom = Double.POSITIVE_INFINITY;
+
+        synchronized Boolean getValidity(double tolerance) {
+            if (tolerance >= validFrom) {
+                return Boolean.TRUE;
+            }
+            if (tolerance <= invalidUpTo) {
+                return Boolean.FALSE;
+            }
+            return null;
+        }
+
+        synchronized void record(double tolerance, boolean valid) {
+            if (valid) {
+                validFrom = min(validFrom, tolerance);
+            } else {
+                invalidUpTo = max(invalidUpTo, tolerance);
+            }
+        }
+    }
+
+    /* Exact matrix elements or axis and angle of a tested operation. */
+    private static final class DeviationKey {
+
+        private final double[] values;
+
+        DeviationKey(double[] values_in) {
+            values = values_in;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return (obj instanceof DeviationKey) && Arrays.equals(values, ((DeviationKey) obj).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values);
+        }
+    }
+
     /* General methods used by all molecules. 
      * *********************************************
      */
     /* Sorts atoms according to species AND distance from origin.*/
     private void sortAtoms() {
-        sortedAtoms = new HashMap<Double, Map<Element, List<Atom>>>();
-        Map<Double, List<Atom>> distanceCollected =
-                    CollectionBinner.group(mol.getSites(), new DistanceSimilarityComparator(TOLERANCE));
-
-        for (Double dist : distanceCollected.keySet()) {
-            if (dist < TOLERANCE){
-                List<Atom> nearOriginAtoms = distanceCollected.get(dist);
-                if (nearOriginAtoms.size()>1)
+        sortedAtoms = CollectionBinner.groupIntoShells(mol, TOLERANCE);
+
+        Iterator<Map.Entry<Double, Map<Element, List<Atom>>>> shells = sortedAtoms.entrySet().iterator();
+        if (shells.hasNext()) {
+            Map.Entry<Double, Map<Element, List<Atom>>> innermost = shells.next();
+            if (innermost.getKey() < TOLERANCE) {
+                Map<Element, List<Atom>> nearOrigin = innermost.getValue();
+                if (nearOrigin.size() > 1 || nearOrigin.values().iterator().next().size() > 1) {
                     System.out.println("Ambiguity as more than one atom near origin!");
-                origin_atom = nearOriginAtoms.get(0);
-            }else
-            {
-                Map<Element, List<Atom>> speciesCollected =
-                CollectionBinner.group(distanceCollected.get(dist), new SpeciesSimilarityComparator());
-                sortedAtoms.put(dist, speciesCollected);
+                }
+                origin_atom = nearOrigin.values().iterator().next().get(0);
+                shells.remove();
             }
         }
 //        for (Atom at : mol) {
@@ -190,6 +407,58 @@ public final class SymmetryAnalyzer {
         return smallestSet;
     }
 
+    /* Returns the list of atoms with the same species and largest distance from
+     * origin.  If several species are at that distance, the heaviest is used.
+     * */
+    private List<Atom> getOutermostSymSet() {
+        List<Atom> outermostSet = null;
+        double maxDist = -1;
+        double maxWt = -1;
+        for (Double dist : sortedAtoms.keySet()) {
+            for (Element species : sortedAtoms.get(dist).keySet()) {
+                if ((dist > maxDist) || (dist == maxDist && species.getAtWt() > maxWt)) {
+                    outermostSet = sortedAtoms.get(dist).get(species);
+                    maxDist = dist;
+                    maxWt = species.getAtWt();
+                }
+            }
+        }
+        return outermostSet;
+    }
+
+    /* Orders the atoms for validating operations so that invalid operations
+     * are rejected after as few atoms as possible.  Atoms in the smallest
+     * symmetry equivalent set are checked first, then those in the outermost
+     * set, which move furthest under an invalid operation, and then the rest.
+     * The outcome of a validation does not depend on the order.
+     * */
+    private void computeValidationOrder() {
+        int n = mol.size();
+        Map<Atom, Integer> indices = new IdentityHashMap<Atom, Integer>(2 * n);
+        for (int i = 0; i < n; i++) {
+            indices.put(mol.get(i), i);
+        }
+        boolean[] added = new boolean[n];
+        validationOrder = new int[n];
+        int count = 0;
+        if (!sortedAtoms.isEmpty()) {
+            for (List<Atom> stage : Arrays.asList(getSmallestSymSet(), getOutermostSymSet())) {
+                for (Atom at : stage) {
+                    int i = indices.get(at);
+                    if (!added[i]) {
+                        added[i] = true;
+                        validationOrder[count++] = i;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            if (!added[i]) {
+                validationOrder[count++] = i;
+            }
+        }
+    }
+
     /* See similar method.  This is an overloaded version of getSmallestSymSetNotOnAxis()
      * which returns the smallest list of atoms with the same species and distance
      * from origin AND does not lie on the specified axis.  This maximal set
@@ -225,16 +494,38 @@ public final class SymmetryAnalyzer {
 
     /* Checks if the coord and species supplied refers to an actual Atom. */
     public boolean isValidSite(Point3d coord, Element species) {
-        double coordDist = coord.distance(new Point3d(0, 0, 0));
+        return isValidSite(coord.x, coord.y, coord.z, species);
+    }
+
+    private boolean isValidSite(double x, double y, double z, Element species) {
+        double coordDist = sqrt(x * x + y * y + z * z);
         double myTolerance = max(TOLERANCE, TOLERANCE * coordDist);
-        for (Atom at : mol) {
-            if (at.getSpecies() == species) {
-                if (at.getCoord().distance(coord) < myTolerance) {
-                    return true;
-                }
+        CellList sites = speciesSites.get(species);
+        return (sites != null) && sites.containsWithin(x, y, z, myTolerance);
+    }
+
+    /* Builds a cell list for the atoms of each species. */
+    private void indexSites() {
+        int n = mol.size();
+        int[] counts = new int[Element.values().length];
+        for (int i = 0; i < n; i++) {
+            counts[mol.getAtomSpecies(i).ordinal()]++;
+        }
+        Map<Element, int[]> indices = new EnumMap<Element, int[]>(Element.class);
+        for (int i = 0; i < n; i++) {
+            Element el = mol.getAtomSpecies(i);
+            int[] list = indices.get(el);
+            if (list == null) {
+                list = new int[counts[el.ordinal()]];
+                indices.put(el, list);
+                counts[el.ordinal()] = 0;
             }
+            list[counts[el.ordinal()]++] = i;
+        }
+        speciesSites = new EnumMap<Element, CellList>(Element.class);
+        for (Map.Entry<Element, int[]> entry : indices.entrySet()) {
+            speciesSites.put(entry.getKey(), new CellList(mol, entry.getValue(), TOLERANCE));
         }
-        return false;
     }
 
     /* Simple algorithm to find the factors of the highest possible rotational symmetry
@@ -408,72 +699,138 @@ public final class SymmetryAnalyzer {
         R2present = R3present = R4present = R5present = false;
         Point3d origin = new Point3d(0, 0, 0);
 
+        final Point3d[] testset = getCoords(getSmallestSymSet());
+        final int m = testset.length;
+        final AxisCandidates r2Axes = new AxisCandidates(180);
+        final AxisCandidates rnAxes = new AxisCandidates(120, 90, 72);
         Vector3d testAxis = new Vector3d();
-        List<Atom> testset = getSmallestSymSet();
-        for (int i = 0; i < testset.size() - 2; i++) {
-            Point3d atom1 = testset.get(i).getCoord();
-            for (int j = i + 1; j < testset.size() - 1; j++) {
-                Point3d atom2 = testset.get(j).getCoord();
-                if (!R2present) {
-                    testAxis.add(atom2, atom1);
-                    if (testAxis.length() > TOLERANCE) {
-                        R2present = isValidOperation(SymmetryOperation.Rotation(origin, testAxis, 180));
-                        if (R2present) {
-                            rotSymmetries.put(new Vector3d(testAxis), 2);
-                        }
-                    }
+        final int batch = axisParallelism();
+        search:
+        for (int i0 = 0; i0 < m - 2; i0 += batch) {
+            /* Candidates of a batch of rows of the serial search are generated
+             * and validated in parallel, then the serial search is replayed
+             * over the batch using the stored results. */
+            final boolean needR2 = !R2present;
+            forEach(i0, min(m - 2, i0 + batch), new IndexedTask() {
+
+                public void run(int i) {
+                    offerSphericalAxes(testset, i, needR2, r2Axes, rnAxes);
                 }
-                for (int k = j + 1; k < testset.size(); k++) {
-                    Point3d atom3 = testset.get(k).getCoord();
+            });
+            r2Axes.sealOffered();
+            rnAxes.sealOffered();
+            for (int i = i0; i < min(m - 2, i0 + batch); i++) {
+                Point3d atom1 = testset[i];
+                for (int j = i + 1; j < m - 1; j++) {
+                    Point3d atom2 = testset[j];
                     if (!R2present) {
-                        testAxis.add(atom1, atom3);
+                        testAxis.add(atom2, atom1);
                         if (testAxis.length() > TOLERANCE) {
-                            R2present = isValidOperation(SymmetryOperation.Rotation(origin, testAxis, 180));
+                            R2present = r2Axes.isValid(testAxis, 0);
                             if (R2present) {
+                                detectedSymmetries.add(SymmetryOperation.Rotation(origin, testAxis, 180));
                                 rotSymmetries.put(new Vector3d(testAxis), 2);
                             }
                         }
                     }
-                    Vector3d vec1 = new Vector3d();
-                    vec1.sub(atom2, atom1);
-                    Vector3d vec2 = new Vector3d();
-                    vec2.sub(atom3, atom1);
-                    testAxis.cross(vec1, vec2);
-                    if (testAxis.length() > TOLERANCE) {
-                        if (!R3present) {
-                            R3present = isValidOperation(SymmetryOperation.Rotation(origin, testAxis, 120));
-                            if (R3present) {
-                                rotSymmetries.put(new Vector3d(testAxis), 3);
-                                break;
+                    for (int k = j + 1; k < m; k++) {
+                        Point3d atom3 = testset[k];
+                        if (!R2present) {
+                            testAxis.add(atom1, atom3);
+                            if (testAxis.length() > TOLERANCE) {
+                                R2present = r2Axes.isValid(testAxis, 0);
+                                if (R2present) {
+                                    detectedSymmetries.add(SymmetryOperation.Rotation(origin, testAxis, 180));
+                                    rotSymmetries.put(new Vector3d(testAxis), 2);
+                                }
                             }
                         }
-                        if (!R4present) {
-                            R4present = isValidOperation(SymmetryOperation.Rotation(origin, testAxis, 90));
-                            if (R4present) {
-                                rotSymmetries.put(new Vector3d(testAxis), 4);
-                                break;
+                        crossAxis(atom1, atom2, atom3, testAxis);
+                        if (testAxis.length() > TOLERANCE) {
+                            if (!R3present) {
+                                R3present = rnAxes.isValid(testAxis, 0);
+                                if (R3present) {
+                                    detectedSymmetries.add(SymmetryOperation.Rotation(origin, testAxis, 120));
+                                    rotSymmetries.put(new Vector3d(testAxis), 3);
+                                    break;
+                                }
                             }
-                        }
-                        if (!R5present) {
-                            R5present = isValidOperation(SymmetryOperation.Rotation(origin, testAxis, 72));
-                            if (R5present) {
-                                rotSymmetries.put(new Vector3d(testAxis), 5);
-                                break;
+                            if (!R4present) {
+                                R4present = rnAxes.isValid(testAxis, 1);
+                                if (R4present) {
+                                    detectedSymmetries.add(SymmetryOperation.Rotation(origin, testAxis, 90));
+                                    rotSymmetries.put(new Vector3d(testAxis), 4);
+                                    break;
+                                }
+                            }
+                            if (!R5present) {
+                                R5present = rnAxes.isValid(testAxis, 2);
+                                if (R5present) {
+                                    detectedSymmetries.add(SymmetryOperation.Rotation(origin, testAxis, 72));
+                                    rotSymmetries.put(new Vector3d(testAxis), 5);
+                                    break;
+                                }
                             }
                         }
-                    }
 
+                    }
+                    if ((R3present) && (R2present) && ((R4present) || (R5present))) {
+                        break search;
+                    }
                 }
-                if ((R3present) && (R2present) && ((R4present) || (R5present))) {
-                    break;
+            }
+        }
+    }
+
+    /* Generates the candidate axes of row i of the search in
+     * findSphericalAxes, in the same way as the search itself. */
+    private void offerSphericalAxes(Point3d[] testset, int i, boolean needR2,
+            AxisCandidates r2Axes, AxisCandidates rnAxes) {
+        int m = testset.length;
+        Vector3d testAxis = new Vector3d();
+        Point3d atom1 = testset[i];
+        for (int j = i + 1; j < m - 1; j++) {
+            Point3d atom2 = testset[j];
+            long row = ((long) i * m + j) * m;
+            if (needR2) {
+                testAxis.add(atom2, atom1);
+                if (testAxis.length() > TOLERANCE) {
+                    r2Axes.offer(testAxis, row + j);
                 }
             }
-            if ((R3present) && (R2present) && ((R4present) || (R5present))) {
-                break;
+            for (int k = j + 1; k < m; k++) {
+                Point3d atom3 = testset[k];
+                if (needR2) {
+                    testAxis.add(atom1, atom3);
+                    if (testAxis.length() > TOLERANCE) {
+                        r2Axes.offer(testAxis, row + k);
+                    }
+                }
+                crossAxis(atom1, atom2, atom3, testAxis);
+                if (testAxis.length() > TOLERANCE) {
+                    rnAxes.offer(testAxis, row + k);
+                }
             }
         }
     }
 
+    /* Normal to the plane through three atoms. */
+    private static void crossAxis(Point3d atom1, Point3d atom2, Point3d atom3, Vector3d axis) {
+        Vector3d vec1 = new Vector3d();
+        vec1.sub(atom2, atom1);
+        Vector3d vec2 = new Vector3d();
+        vec2.sub(atom3, atom1);
+        axis.cross(vec1, vec2);
+    }
+
+    private static Point3d[] getCoords(List<Atom> atoms) {
+        Point3d[] coords = new Point3d[atoms.size()];
+        for (int i = 0; i < coords.length; i++) {
+            coords[i] = atoms.get(i).getCoord();
+        }
+        return coords;
+    }
+
     /* Looks for testmirror symmetry of specified type about axis.  Possible types
      * are "h" or "vd".  Horizontal (h) mirrors are perpendicular to the axis
      * while vertical (v) or diagonal (d) mirrors are parallel.  v mirrors has
@@ -559,30 +916,54 @@ public final class SymmetryAnalyzer {
     /* Checks for R2 axes perpendicular to unique axis.  For handling
      * symmetric top molecules.
      */
-    private void checkPerpendicularR2Axes(Vector3d mainaxis) {
+    private void checkPerpendicularR2Axes(final Vector3d mainaxis) {
         //System.out.println("Checking perpendicular R2!");
         boolean R2present = false;
-        List<Atom> possibleSymAtomSet = getSmallestSymSetNotOnAxis(mainaxis);
-        for (int i = 0; i < possibleSymAtomSet.size() - 1; i++) {
-            for (int j = i + 1; j < possibleSymAtomSet.size(); j++) {
-                Vector3d testAxis = new Vector3d();
-                testAxis.sub(possibleSymAtomSet.get(i).getCoord(), possibleSymAtomSet.get(j).getCoord());
-                testAxis.cross(testAxis, mainaxis);
-                if (testAxis.length() > TOLERANCE) {
-                    R2present = isValidOperation(SymmetryOperation.Rotation(new Point3d(0, 0, 0), testAxis, 180));
-                    if (R2present) {
-                        rotSymmetries.put(new Vector3d(testAxis), 2);
-                        break;
+        final Point3d[] possibleSymAtomSet = getCoords(getSmallestSymSetNotOnAxis(mainaxis));
+        final int m = possibleSymAtomSet.length;
+        final AxisCandidates r2Axes = new AxisCandidates(180);
+        Vector3d testAxis = new Vector3d();
+        final int batch = axisParallelism();
+        for (int i0 = 0; i0 < m - 1 && !R2present; i0 += batch) {
+            forEach(i0, min(m - 1, i0 + batch), new IndexedTask() {
+
+                public void run(int i) {
+                    Vector3d axis = new Vector3d();
+                    for (int j = i + 1; j < m; j++) {
+                        perpendicularAxis(possibleSymAtomSet[i], possibleSymAtomSet[j], mainaxis, axis);
+                        if (axis.length() > TOLERANCE) {
+                            r2Axes.offer(axis, (long) i * m + j);
+                        }
                     }
                 }
-            }
-            if (R2present) {
-                break;
+            });
+            r2Axes.sealOffered();
+            for (int i = i0; i < min(m - 1, i0 + batch); i++) {
+                for (int j = i + 1; j < m; j++) {
+                    perpendicularAxis(possibleSymAtomSet[i], possibleSymAtomSet[j], mainaxis, testAxis);
+                    if (testAxis.length() > TOLERANCE) {
+                        R2present = r2Axes.isValid(testAxis, 0);
+                        if (R2present) {
+                            detectedSymmetries.add(SymmetryOperation.Rotation(new Point3d(0, 0, 0), testAxis, 180));
+                            rotSymmetries.put(new Vector3d(testAxis), 2);
+                            break;
+                        }
+                    }
+                }
+                if (R2present) {
+                    break;
+                }
             }
         }
 
     }
 
+    /* Axis perpendicular to mainaxis and to the line joining two atoms. */
+    private static void perpendicularAxis(Point3d atom1, Point3d atom2, Vector3d mainaxis, Vector3d axis) {
+        axis.sub(atom1, atom2);
+        axis.cross(axis, mainaxis);
+    }
+
     /* Determines the rotational symmetry about supplied axis.  Used only for
      * symmetric top molecules which has possible rotational symmetryOperations > 2.
      */
@@ -597,8 +978,9 @@ public final class SymmetryAnalyzer {
          */
         List<Integer> test_symmetries = getFactors(maxsym);
         int finalsym = 1;
+        AxisFrame frame = new AxisFrame(axis);
         for (int i = test_symmetries.size() - 1; i > 0; i--) {
-            boolean rotvalid = isValidOperation(SymmetryOperation.Rotation(new Point3d(0, 0, 0), axis, 360 / test_symmetries.get(i)));
+            boolean rotvalid = isValidRotation(frame, 360 / test_symmetries.get(i));
             if (rotvalid) {
                 finalsym = test_symmetries.get(i);
                 rotSymmetries.put(new Vector3d(axis), finalsym);
@@ -612,16 +994,327 @@ public final class SymmetryAnalyzer {
     /* Checks if supplied operation is a valid symmetry operation for Molecule
      */
     private boolean isValidOperation(SymmetryOperation symop) {
-        for (Atom at : mol) {
-            if (!isValidSite(symop.transformPoint(at.getCoord()), at.getSpecies())) {
+        DeviationKey key = null;
+        if (sweep != null) {
+            double[] elements = new double[12];
+            for (int e = 0; e < 12; e++) {
+                elements[e] = symop.get(e / 4, e % 4);
+            }
+            key = new DeviationKey(elements);
+            Boolean known = sweep.getValidity(key, TOLERANCE);
+            if (known != null) {
+                if (known) {
+                    detectedSymmetries.add(symop);
+                }
+                return known;
+            }
+        }
+        boolean valid = true;
+        double[] transformed = new double[3];
+        for (int i : validationOrder) {
+            symop.transformInto(mol.x(i), mol.y(i), mol.z(i), transformed);
+            if (!isValidSite(transformed[0], transformed[1], transformed[2], mol.getAtomSpecies(i))) {
+                valid = false;
+                break;
+            }
+        }
+        if (sweep != null) {
+            sweep.record(key, TOLERANCE, valid);
+        }
+        if (valid) {
+            detectedSymmetries.add(symop);
+        }
+        return valid;
+    }
+
+
+    /* Checks if rotation by angle about axis through the origin is a valid
+     * symmetry operation, using the cylindrical coordinates of the atoms about
+     * the axis cached in frame.  Gives the same result as isValidOperation
+     * with the corresponding rotation, but several angles about the same axis
+     * share the projection of atoms onto the axis.
+     */
+    private boolean isValidRotation(AxisFrame frame, double angle) {
+        if (!testRotation(frame, angle)) {
+            return false;
+        }
+        detectedSymmetries.add(SymmetryOperation.Rotation(new Point3d(0, 0, 0), frame.axis, angle));
+        return true;
+    }
+
+    /* Same as isValidRotation, but without recording the operation, so that
+     * it may be called from several threads at once. */
+    private boolean testRotation(AxisFrame frame, double angle) {
+        if (sweep == null) {
+            return testRotationSites(frame, angle);
+        }
+        DeviationKey key = new DeviationKey(new double[]{frame.axis.x, frame.axis.y, frame.axis.z, angle});
+        Boolean known = sweep.getValidity(key, TOLERANCE);
+        if (known != null) {
+            return known;
+        }
+        boolean valid = testRotationSites(frame, angle);
+        sweep.record(key, TOLERANCE, valid);
+        return valid;
+    }
+
+    private boolean testRotationSites(AxisFrame frame, double angle) {
+        double theta = angle * PI / 180;
+        double cosT = cos(theta);
+        double sinT = sin(theta);
+        for (int k = 0; k < validationOrder.length; k++) {
+            frame.ensureComputed(k);
+            double a = frame.radial1[k];
+            double b = frame.radial2[k];
+            double h = frame.height[k];
+            double r1 = a * cosT - b * sinT;
+            double r2 = a * sinT + b * cosT;
+            double x = h * frame.nx + r1 * frame.e1x + r2 * frame.e2x;
+            double y = h * frame.ny + r1 * frame.e1y + r2 * frame.e2y;
+            double z = h * frame.nz + r1 * frame.e1z + r2 * frame.e2z;
+            if (!isValidSite(x, y, z, mol.getAtomSpecies(validationOrder[k]))) {
                 return false;
             }
         }
-        
-        detectedSymmetries.add(symop);
         return true;
     }
 
+    /* Cylindrical coordinates of the atoms about an axis through the origin,
+     * i.e. height along the axis and components along two perpendicular unit
+     * vectors e1 and e2 = n x e1.  Filled lazily in validation order since
+     * most rotations are rejected after a few atoms.
+     */
+    private final class AxisFrame {
+
+        private final Vector3d axis;
+        private final double nx, ny, nz, e1x, e1y, e1z, e2x, e2y, e2z;
+        private final double[] height, radial1, radial2;
+        private int computed = 0;
+
+        AxisFrame(Vector3d axis_in) {
+            axis = new Vector3d(axis_in);
+            double l = axis.length();
+            nx = axis.x / l;
+            ny = axis.y / l;
+            nz = axis.z / l;
+            // Cross with the coordinate axis least aligned with n.
+            double ux = 0, uy = 0, uz = 0;
+            if (abs(nx) <= abs(ny) && abs(nx) <= abs(nz)) {
+                ux = 1;
+            } else if (abs(ny) <= abs(nz)) {
+                uy = 1;
+            } else {
+                uz = 1;
+            }
+            double px = ny * uz - nz * uy;
+            double py = nz * ux - nx * uz;
+            double pz = nx * uy - ny * ux;
+            double pl = sqrt(px * px + py * py + pz * pz);
+            e1x = px / pl;
+            e1y = py / pl;
+            e1z = pz / pl;
+            e2x = ny * e1z - nz * e1y;
+            e2y = nz * e1x - nx * e1z;
+            e2z = nx * e1y - ny * e1x;
+            int n = validationOrder.length;
+            height = new double[n];
+            radial1 = new double[n];
+            radial2 = new double[n];
+        }
+
+        void ensureComputed(int k) {
+            while (computed <= k) {
+                int i = validationOrder[computed];
+                double x = mol.x(i);
+                double y = mol.y(i);
+                double z = mol.z(i);
+                height[computed] = x * nx + y * ny + z * nz;
+                radial1[computed] = x * e1x + y * e1y + z * e1z;
+                radial2[computed] = x * e2x + y * e2y + z * e2z;
+                computed++;
+            }
+        }
+    }
+
+    /* Candidate rotation axes, validated speculatively in parallel for a set
+     * of angles.  Candidates are deduplicated on their quantized direction,
+     * ignoring sign, since a rotation is valid exactly when its inverse is.
+     * Each direction is represented by the candidate that comes first in the
+     * serial search order, so the results do not depend on how the threads
+     * are scheduled.  When the result for a candidate is needed, it is
+     * validated together with the next few unvalidated candidates in search
+     * order, which bounds the work wasted once the search stops.
+     */
+    private final class AxisCandidates {
+
+        private final double[] angles;
+        private final ConcurrentMap<Long, Candidate> byDirection = new ConcurrentHashMap<Long, Candidate>();
+        private final Queue<Candidate> offered = new ConcurrentLinkedQueue<Candidate>();
+        private final List<Candidate> ordered = new ArrayList<Candidate>();
+
+        AxisCandidates(double... angles_in) {
+            angles = angles_in;
+        }
+
+        /* Adds a candidate axis at position ordinal of the serial search.
+         * Thread safe. */
+        void offer(Vector3d axis, long ordinal) {
+            Long key = directionKey(axis);
+            Candidate c = new Candidate(key, new Vector3d(axis), ordinal, angles.length);
+            Candidate prev = byDirection.putIfAbsent(key, c);
+            while (prev != null && prev.ordinal > ordinal) {
+                if (byDirection.replace(key, prev, c)) {
+                    prev = null;
+                } else {
+                    prev = byDirection.get(key);
+                }
+            }
+            if (prev == null) {
+                offered.add(c);
+            }
+        }
+
+        /* Appends the candidates offered since the last call to the search
+         * order.  They must all come later in the search than those already
+         * appended. */
+        void sealOffered() {
+            List<Candidate> batch = new ArrayList<Candidate>();
+            for (Candidate c = offered.poll(); c != null; c = offered.poll()) {
+                if (byDirection.get(c.key) == c) {
+                    batch.add(c);
+                }
+            }
+            Collections.sort(batch, Candidate.BY_ORDINAL);
+            for (Candidate c : batch) {
+                c.position = ordered.size();
+                ordered.add(c);
+            }
+        }
+
+        /* Result for rotation by the angle at angleIndex about the candidate
+         * representing the direction of axis, which must have been offered
+         * and sealed. */
+        boolean isValid(Vector3d axis, final int angleIndex) {
+            Candidate c = byDirection.get(directionKey(axis));
+            if (c.state[angleIndex] == Candidate.UNKNOWN) {
+                int parallelism = axisParallelism();
+                int chunkSize = (parallelism > 1) ? 4 * parallelism : 1;
+                final List<Candidate> chunk = new ArrayList<Candidate>(chunkSize);
+                for (int p = c.position; p < ordered.size() && chunk.size() < chunkSize; p++) {
+                    if (ordered.get(p).state[angleIndex] == Candidate.UNKNOWN) {
+                        chunk.add(ordered.get(p));
+                    }
+                }
+                forEach(0, chunk.size(), new IndexedTask() {
+
+                    public void run(int i) {
+                        Candidate d = chunk.get(i);
+                        boolean valid = testRotation(new AxisFrame(d.axis), angles[angleIndex]);
+                        d.state[angleIndex] = valid ? Candidate.VALID : Candidate.INVALID;
+                    }
+                });
+            }
+            return c.state[angleIndex] == Candidate.VALID;
+        }
+    }
+
+    private static final class Candidate {
+
+        static final byte UNKNOWN = 0, VALID = 1, INVALID = 2;
+        static final Comparator<Candidate> BY_ORDINAL = new Comparator<Candidate>() {
+
+            public int compare(Candidate a, Candidate b) {
+                return (a.ordinal < b.ordinal) ? -1 : ((a.ordinal == b.ordinal) ? 0 : 1);
+            }
+        };
+        private final Long key;
+        private final Vector3d axis;
+        private final long ordinal;
+        private final byte[] state;
+        private int position;
+
+        Candidate(Long key_in, Vector3d axis_in, long ordinal_in, int nAngles) {
+            key = key_in;
+            axis = axis_in;
+            ordinal = ordinal_in;
+            state = new byte[nAngles];
+        }
+    }
+
+    /* Quantized unit direction of axis with sign removed, packed in a long. */
+    private static long directionKey(Vector3d axis) {
+        double l = axis.length();
+        double x = axis.x / l;
+        double y = axis.y / l;
+        double z = axis.z / l;
+        if (x < 0 || (x == 0 && (y < 0 || (y == 0 && z < 0)))) {
+            x = -x;
+            y = -y;
+            z = -z;
+        }
+        long qx = round(x / AXIS_RESOLUTION) + AXIS_BINS;
+        long qy = round(y / AXIS_RESOLUTION) + AXIS_BINS;
+        long qz = round(z / AXIS_RESOLUTION) + AXIS_BINS;
+        return (qx << 42) | (qy << 21) | qz;
+    }
+
+    private interface IndexedTask {
+
+        void run(int i);
+    }
+
+    /* Candidate axes are validated on the pool of the calling task when the
+     * analyzer itself runs inside a ForkJoinPool, so that batch callers keep
+     * control of the total parallelism, and on the common pool otherwise. */
+    private static ForkJoinPool axisPool() {
+        ForkJoinPool pool = ForkJoinTask.getPool();
+        return (pool != null) ? pool : ForkJoinPool.commonPool();
+    }
+
+    /* Number of candidate axes worth validating together. */
+    private static int axisParallelism() {
+        return max(1, axisPool().getParallelism());
+    }
+
+    /* Runs task for all indices in [from, to) on the pool given by axisPool. */
+    private static void forEach(int from, int to, IndexedTask task) {
+        if (to - from == 1) {
+            task.run(from);
+        } else if (to > from) {
+            RangeAction action = new RangeAction(from, to, task);
+            if (ForkJoinTask.inForkJoinPool()) {
+                action.invoke();
+            } else {
+                ForkJoinPool.commonPool().invoke(action);
+            }
+        }
+    }
+
+    private static final class RangeAction extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from, to;
+        private final IndexedTask task;
+
+        RangeAction(int from_in, int to_in, IndexedTask task_in) {
+            from = from_in;
+            to = to_in;
+            task = task_in;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                for (int i = from; i < to; i++) {
+                    task.run(i);
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new RangeAction(from, mid, task), new RangeAction(mid, to, task));
+            }
+        }
+    }
 
     /*Returns the axis with the highest rotational symmetry*/
     private Vector3d getHighestRotationAxes() {
@@ -668,26 +1361,58 @@ public final class SymmetryAnalyzer {
         return mol;
     }
 
+    /**
+     * Returns the symmetry orbits of the atoms, i.e. the sets of atoms mapped
+     * onto each other by the operations of the point group.
+     * @return Atom indices of each orbit in ascending order, with orbits
+     * ordered by their first atom.
+     */
+    public List<int[]> getOrbits() {
+        List<int[]> copy = new ArrayList<int[]>(getOrbitList().size());
+        for (int[] orbit : getOrbitList()) {
+            copy.add(orbit.clone());
+        }
+        return copy;
+    }
+
+    /**
+     * Returns the orbit an atom belongs to.
+     * @param atomIndex Index of atom in the centered Molecule.
+     * @return Index of orbit in {@link #getOrbits()}.
+     */
+    public int getOrbitOf(int atomIndex) {
+        getOrbitList();
+        return orbitId[atomIndex];
+    }
+
+    /**
+     * Returns one atom of each orbit of a particular species, which is the
+     * atom with the lowest index in the orbit.
+     * @param species Species of atoms.
+     * @return Indices of symmetrically distinct atoms in ascending order.
+     */
+    public int[] getOrbitRepresentatives(Element species) {
+        List<int[]> allOrbits = getOrbitList();
+        int[] reps = new int[allOrbits.size()];
+        int count = 0;
+        for (int[] orbit : allOrbits) {
+            if (mol.getAtomSpecies(orbit[0]) == species) {
+                reps[count++] = orbit[0];
+            }
+        }
+        return Arrays.copyOf(reps, count);
+    }
+
     /**
      * Returns indices of set of symmetrically distinct atoms of a particular species
      * @param species 
      * @return Indices of symmetrically distinct atoms of particular species.
      */
     public List<Atom> getAllDistinct(Element species) {
-        List<Atom> uniqueatoms = new ArrayList<Atom>();
-        for (Atom at : mol) {
-            if (at.getSpecies() == species) {
-                boolean found = false;
-                for (Atom at2 : uniqueatoms) {
-                    if (assignedPointGroup.isSymmetricallyEquivalent(at.getCoord(), at2.getCoord(), TOLERANCE)) {
-                        found = true;
-                        break;
-                    }
-                }
-                if (!found) {
-                    uniqueatoms.add(at);
-                }
-            }
+        int[] reps = getOrbitRepresentatives(species);
+        List<Atom> uniqueatoms = new ArrayList<Atom>(reps.length);
+        for (int i : reps) {
+            uniqueatoms.add(mol.get(i));
         }
         return uniqueatoms;
     }
@@ -699,18 +1424,17 @@ public final class SymmetryAnalyzer {
      * @return List of atoms which are distinct
      */
     public List<Atom> getDistinctSet(Element species, List<Atom> testSet) {
+        getOrbitList();
         List<Atom> uniqueatoms = new ArrayList<Atom>();
+        BitSet foundOrbits = new BitSet(orbits.size());
         for (Atom at : testSet) {
-
             if (at.getSpecies() == species) {
-                boolean found = false;
-                for (Atom compareAt : uniqueatoms) {
-                    if (assignedPointGroup.isSymmetricallyEquivalent(at.getCoord(), compareAt.getCoord(), TOLERANCE)) {
-                        found = true;
-                        break;
-                    }
-                }
-                if (!found) {
+                int site = findSite(at);
+                if (site < 0) {
+                    // Not an atom of the molecule, so not equivalent to any.
+                    uniqueatoms.add(at);
+                } else if (!foundOrbits.get(orbitId[site])) {
+                    foundOrbits.set(orbitId[site]);
                     uniqueatoms.add(at);
                 }
             }
@@ -718,64 +1442,104 @@ public final class SymmetryAnalyzer {
         return uniqueatoms;
     }
 
-    /* Recursive algorithm to permutate through all possible combinations of
-     * the initially supplied symmetry operations to arrive at a complete
-     * set of operations mapping a single atom to all other equivalent atoms
-     * in the point group.  This assumes that the initial number already uniquely
-     * identifies all operations.*/
-    private List<SymmetryOperation> generateFullSymmetrySet(List<SymmetryOperation> operations) {
-        List<SymmetryOperation> newSet = operations;
-        SymmetryOperation testSym;
-        boolean complete = true;
-        for (SymmetryOperation sm1 : operations) {
-            for (SymmetryOperation sm2 : operations) {
-                testSym = SymmetryOperation.product(sm1, sm2);
-                if (!inSet(testSym, operations)) {
-                    newSet.add(testSym);
-                    complete = false;
-                    break;
-                }
-                testSym = SymmetryOperation.product(sm2, sm1);
-                if (!inSet(testSym, operations)) {
-                    newSet.add(testSym);
-                    complete = false;
-                    break;
-                }
-
-            }
-            if (!complete) {
-                break;
+    /* Index of the atom of the same species closest to at, if within
+     * TOLERANCE, or -1. */
+    private int findSite(Atom at) {
+        CellList sites = speciesSites.get(at.getSpecies());
+        if (sites == null) {
+            return -1;
+        }
+        int site = -1;
+        double minDistSq = TOLERANCE * TOLERANCE;
+        for (int j : sites.getNeighbors(at.getX(), at.getY(), at.getZ(), TOLERANCE)) {
+            double dx = mol.x(j) - at.getX();
+            double dy = mol.y(j) - at.getY();
+            double dz = mol.z(j) - at.getZ();
+            double distSq = dx * dx + dy * dy + dz * dz;
+            if (distSq < minDistSq) {
+                minDistSq = distSq;
+                site = j;
             }
         }
+        return site;
+    }
 
-        if (operations.size() > 200) {
-            System.err.println("Generation of symmetry operations in infinite loop.  " +
-                    "Possible error in initial operations or tolerance too low.");
-            return newSet;
-        //System.exit(-1);
+    /* Computes the orbits on first use.  The images of the first unassigned
+     * atom under all operations of the group are located with the cell list
+     * of its species, which takes n.|G| lookups in total instead of comparing
+     * every pair of atoms under every operation. */
+    private List<int[]> getOrbitList() {
+        if (orbits != null) {
+            return orbits;
         }
-        if (!complete) {
-            return generateFullSymmetrySet(newSet);
-        } else {
-            return newSet;
+        int n = mol.size();
+        int[] ids = new int[n];
+        Arrays.fill(ids, -1);
+        List<int[]> found = new ArrayList<int[]>();
+        int[] members = new int[n];
+        double[] image = new double[3];
+        double tolSq = TOLERANCE * TOLERANCE;
+        for (int i = 0; i < n; i++) {
+            if (ids[i] >= 0) {
+                continue;
+            }
+            int id = found.size();
+            int count = 0;
+            ids[i] = id;
+            members[count++] = i;
+            CellList sites = speciesSites.get(mol.getAtomSpecies(i));
+            for (SymmetryOperation op : assignedPointGroup) {
+                op.transformInto(mol.x(i), mol.y(i), mol.z(i), image);
+                for (int j : sites.getNeighbors(image[0], image[1], image[2], TOLERANCE)) {
+                    double dx = mol.x(j) - image[0];
+                    double dy = mol.y(j) - image[1];
+                    double dz = mol.z(j) - image[2];
+                    if (ids[j] < 0 && dx * dx + dy * dy + dz * dz < tolSq) {
+                        ids[j] = id;
+                        members[count++] = j;
+                    }
+                }
+            }
+            int[] orbit = Arrays.copyOf(members, count);
+            Arrays.sort(orbit);
+            found.add(orbit);
         }
+        orbitId = ids;
+        orbits = found;
+        return orbits;
     }
 
-    /**
-     * Checks if symmetry matrix, testMat is already within the comparison set.
-     * @param testMat
-     * @param comparisonSet
-     * @return
-     */
-    private boolean inSet(SymmetryOperation testMat, List<SymmetryOperation> comparisonSet) {
-        boolean inset = false;
-        for (SymmetryOperation cmp : comparisonSet) {
-            if (SymmetryOperation.isEqualWithinTolerance(cmp, testMat, MATRIX_TOLERANCE)) {
-                inset = true;
-                break;
+    /* Closes the detected symmetry operations into the full point group.
+     * Every element of a finite group is a product of generators, so it
+     * suffices to left-multiply each operation in the worklist by each
+     * generator until no new operations appear.  Products are looked up in
+     * a hashed set as packed matrices, and only new ones are turned into
+     * operations.  This assumes that the
+     * initial operations already uniquely identify the group.*/
+    private PointGroup generatePointGroup(List<SymmetryOperation> generators) {
+        SymmetryOperationSet fullSet = new SymmetryOperationSet(MATRIX_TOLERANCE);
+        for (SymmetryOperation op : generators) {
+            fullSet.add(op);
+        }
+        List<SymmetryOperation> distinctGenerators = new ArrayList<SymmetryOperation>(fullSet.getOperations());
+        double[] m = new double[12];
+        for (int i = 0; i < fullSet.size(); i++) {
+            SymmetryOperation op = fullSet.get(i);
+            for (SymmetryOperation gen : distinctGenerators) {
+                SymmetryOperation.productInto(gen, op, m);
+                if (fullSet.indexOf(m) >= 0) {
+                    continue;
+                }
+                fullSet.add(SymmetryOperation.product(gen, op));
+                if (fullSet.size() > MAX_OPERATIONS) {
+                    System.err.println("Generation of symmetry operations in infinite loop.  " +
+                            "Possible error in initial operations or tolerance too low.");
+                    return new PointGroup(schSymbol, new ArrayList<SymmetryOperation>(fullSet.getOperations()));
+                }
             }
         }
-        return inset;
+        return new PointGroup(schSymbol, new ArrayList<SymmetryOperation>(fullSet.getOperations()),
+                fullSet.multiplicationTable());
     }
 
 //    private class AtomSymSet {
@@ -0,0 +1,873 @@
+package net.shyue.smurf.Analyzers;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.shyue.smurf.Structure.CellList;
+import net.shyue.smurf.Structure.Element;
+import net.shyue.smurf.Structure.Molecule;
+import net.shyue.smurf.Structure.MoleculeFingerprint;
+
+/**
+ * Memoizes the results of symmetry analysis, so that analyzing the same
+ * structure repeatedly only runs a SymmetryAnalyzer once.
+ *
+ * Structures are bucketed by their MoleculeFingerprint and the tolerances
+ * used, which do not depend on the position, orientation or order of atoms.
+ * Within a bucket, a structure is compared in full with each cached one by
+ * searching for a rotation, proper or improper, and a reordering of atoms
+ * which maps every atom onto an atom of the same species within a small
+ * fraction of the site tolerance.  The rotation is found by matching two
+ * anchor atoms, chosen in the cached structure to be far from the center of
+ * mass and to have few atoms of the same species at a similar distance.  A
+ * cached result is returned unchanged for the same structure in the same
+ * order and orientation, and is otherwise mapped onto the atom order and
+ * orientation of the new structure.
+ *
+ * The least recently used results are evicted once the capacity is exceeded.
+ * If a spill directory is given, evicted results are written to disk and
+ * read back when the same structure is analyzed again.
+ *
+ * Results are immutable and shared between all callers.  All methods are
+ * thread safe.  Structures are compared, analyzed and written to or read
+ * from disk outside the lock of the cache, so that concurrent callers only
+ * wait for each other to update the in-memory index.
+ * @author shyue
+ */
+public final class SymmetryAnalyzerCache {
+
+    /**
+     * Default number of results held in memory.
+     */
+    public static final int DEFAULT_CAPACITY = 256;
+    /**
+     * Largest distance between matched atoms of two structures sharing a
+     * result, as a fraction of the site tolerance.
+     */
+    private static final double MATCH_RESOLUTION = 1e-2;
+    private static final String SPILL_SUFFIX = ".sym";
+    private static SymmetryAnalyzerCache sharedCache;
+    private final int capacity;
+    private final File spillDirectory;
+    /**
+     * All entries in order of access, and the entries of each bucket.
+     */
+    private final LinkedHashMap<Entry, Entry> entries;
+    private final Map<Bucket, List<Entry>> buckets;
+    private int hits, misses;
+
+    /**
+     * Creates an in-memory cache.
+     * @param capacity_in Maximum number of results held.
+     */
+    public SymmetryAnalyzerCache(int capacity_in) {
+        this(capacity_in, null);
+    }
+
+    /**
+     * Creates a cache which spills evicted results to disk.
+     * @param capacity_in Maximum number of results held in memory.
+     * @param spillDirectory_in Existing directory for evicted results, or null
+     * to discard them.
+     */
+    public SymmetryAnalyzerCache(int capacity_in, File spillDirectory_in) {
+        if (capacity_in < 1) {
+            throw new IllegalArgumentException("Cache capacity must be positive!");
+        }
+        if (spillDirectory_in != null && !spillDirectory_in.isDirectory()) {
+            throw new IllegalArgumentException(spillDirectory_in + " is not a directory!");
+        }
+        capacity = capacity_in;
+        spillDirectory = spillDirectory_in;
+        entries = new LinkedHashMap<Entry, Entry>(16, 0.75f, true);
+        buckets = new HashMap<Bucket, List<Entry>>();
+    }
+
+    /**
+     * Returns a cache with the default capacity shared by the whole
+     * application.
+     * @return Shared cache.
+     */
+    public static synchronized SymmetryAnalyzerCache getShared() {
+        if (sharedCache == null) {
+            sharedCache = new SymmetryAnalyzerCache(DEFAULT_CAPACITY);
+        }
+        return sharedCache;
+    }
+
+    /**
+     * Returns the symmetry of a Molecule, running a SymmetryAnalyzer only if
+     * the structure has not been analyzed before.
+     * @param mol Molecule to be analyzed.
+     * @return Symmetry analysis result.
+     */
+    public Result analyze(Molecule mol) {
+        return analyze(mol, SymmetryAnalyzer.DEFAULT_TOLERANCE, SymmetryAnalyzer.DEFAULT_EIG_TOLERANCE,
+                SymmetryAnalyzer.DEFAULT_MATRIX_TOLERANCE);
+    }
+
+    /**
+     * Returns the symmetry of a Molecule with custom tolerances, running a
+     * SymmetryAnalyzer only if the structure has not been analyzed before
+     * with the same tolerances, in any orientation or order of atoms.
+     * @param mol Molecule to be analyzed.
+     * @param tolerance Site tolerance in Angstroms.
+     * @param eigTolerance Tolerance for principal moments of inertia.
+     * @param matrixTolerance Tolerance for symmetry operation matrices.
+     * @return Symmetry analysis result.
+     * @see SymmetryAnalyzer#SymmetryAnalyzer(Molecule, double, double, double)
+     */
+    public Result analyze(Molecule mol, double tolerance, double eigTolerance, double matrixTolerance) {
+        Query query = new Query(mol, new double[]{tolerance, eigTolerance, matrixTolerance});
+        List<Entry> candidates;
+        synchronized (this) {
+            List<Entry> bucket = buckets.get(query.bucket);
+            candidates = (bucket == null) ? Collections.<Entry>emptyList() : new ArrayList<Entry>(bucket);
+        }
+        for (Entry entry : candidates) {
+            Result result = entry.match(query);
+            if (result != null) {
+                synchronized (this) {
+                    hits++;
+                    // Marks the entry as recently used, unless evicted since.
+                    entries.get(entry);
+                }
+                return result;
+            }
+        }
+        Result result = unspill(query);
+        if (result != null) {
+            synchronized (this) {
+                hits++;
+            }
+            return result;
+        }
+        synchronized (this) {
+            misses++;
+        }
+        // Two callers analyzing the same new structure at the same time both
+        // run an analyzer, and both results are kept until evicted.
+        result = new Result(mol, query.bucket.tolerances);
+        store(new Entry(query, result));
+        return result;
+    }
+
+    /**
+     * Removes all results held in memory.  Spilled results are kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        buckets.clear();
+    }
+
+    /**
+     * @return Number of results held in memory.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return Number of calls to analyze which were served from the cache.
+     */
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    /**
+     * @return Number of calls to analyze which ran a SymmetryAnalyzer.
+     */
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    /* Adds an entry, then spills the entries it evicts once the lock is
+     * released. */
+    private void store(Entry entry) {
+        List<Entry> evicted = new ArrayList<Entry>();
+        synchronized (this) {
+            entries.put(entry, entry);
+            List<Entry> bucket = buckets.get(entry.bucket);
+            if (bucket == null) {
+                bucket = new ArrayList<Entry>(1);
+                buckets.put(entry.bucket, bucket);
+            }
+            bucket.add(entry);
+            Iterator<Entry> eldest = entries.keySet().iterator();
+            while (entries.size() > capacity) {
+                Entry e = eldest.next();
+                eldest.remove();
+                List<Entry> members = buckets.get(e.bucket);
+                members.remove(e);
+                if (members.isEmpty()) {
+                    buckets.remove(e.bucket);
+                }
+                evicted.add(e);
+            }
+        }
+        for (Entry e : evicted) {
+            spill(e);
+        }
+    }
+
+    private File bucketDirectory(Bucket bucket) {
+        return new File(spillDirectory, bucket.getName());
+    }
+
+    private File spillFile(Entry entry) {
+        return new File(bucketDirectory(entry.bucket), String.format("%016x%s", entry.id, SPILL_SUFFIX));
+    }
+
+    private void spill(Entry entry) {
+        if (spillDirectory == null) {
+            return;
+        }
+        File file = spillFile(entry);
+        if (file.isFile()) {
+            // Spilled before and read back since.
+            return;
+        }
+        File dir = file.getParentFile();
+        try {
+            if (!dir.isDirectory() && !dir.mkdir() && !dir.isDirectory()) {
+                throw new IOException("Unable to create " + dir);
+            }
+            // Written under a temporary name and then renamed, so that a
+            // concurrent reader never sees a partly written file.
+            File temp = File.createTempFile("spill", ".tmp", dir);
+            ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(temp));
+            try {
+                out.writeObject(entry);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(SymmetryAnalyzerCache.class.getName()).log(Level.WARNING,
+                    "Unable to spill symmetry analysis result", ex);
+        }
+    }
+
+    /* Looks for a spilled result for the structure among the spilled
+     * entries of its bucket, and puts the entry back in memory if found. */
+    private Result unspill(Query query) {
+        if (spillDirectory == null) {
+            return null;
+        }
+        File[] files = bucketDirectory(query.bucket).listFiles(new FilenameFilter() {
+
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SPILL_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return null;
+        }
+        for (File file : files) {
+            Entry entry = readEntry(file);
+            Result result = (entry == null) ? null : entry.match(query);
+            if (result != null) {
+                store(entry);
+                return result;
+            }
+        }
+        return null;
+    }
+
+    private static Entry readEntry(File file) {
+        try {
+            ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
+            try {
+                return (Entry) in.readObject();
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(SymmetryAnalyzerCache.class.getName()).log(Level.WARNING,
+                    "Unable to read spilled symmetry analysis result", ex);
+        } catch (ClassNotFoundException ex) {
+            Logger.getLogger(SymmetryAnalyzerCache.class.getName()).log(Level.WARNING,
+                    "Unable to read spilled symmetry analysis result", ex);
+        }
+        return null;
+    }
+
+    /**
+     * Fingerprint of a structure and the tolerances of the analysis, shared
+     * by all orientations and orders of atoms of the structure.
+     */
+    private static final class Bucket implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        private final long highBits, lowBits;
+        private final double[] tolerances;
+
+        Bucket(MoleculeFingerprint fingerprint, double[] tolerances_in) {
+            highBits = fingerprint.getHighBits();
+            lowBits = fingerprint.getLowBits();
+            tolerances = tolerances_in;
+        }
+
+        /* Name of the spill directory of the bucket. */
+        String getName() {
+            return String.format("%016x%016x%08x", highBits, lowBits, Arrays.hashCode(tolerances));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Bucket)) {
+                return false;
+            }
+            Bucket other = (Bucket) obj;
+            return highBits == other.highBits && lowBits == other.lowBits
+                    && Arrays.equals(tolerances, other.tolerances);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (int) (lowBits ^ (lowBits >>> 32)) + Arrays.hashCode(tolerances);
+        }
+    }
+
+    /**
+     * A structure to be analyzed, with its coordinates relative to the
+     * center of mass and the indices needed to match it with cached
+     * structures.  Only used by the calling thread.
+     */
+    private static final class Query {
+
+        private final Bucket bucket;
+        private final Element[] species;
+        private final Molecule centered;
+        private final double eps;
+        private Map<Element, int[]> byRadius;
+        private Map<Element, double[]> sortedRadii;
+        private Map<Element, CellList> sites;
+
+        Query(Molecule mol, double[] tolerances) {
+            bucket = new Bucket(new MoleculeFingerprint(mol), tolerances);
+            eps = MATCH_RESOLUTION * tolerances[0];
+            int n = mol.size();
+            centered = (n > 0) ? mol.getCenteredCopy() : mol;
+            species = new Element[n];
+            for (int i = 0; i < n; i++) {
+                species[i] = mol.getAtomSpecies(i);
+            }
+        }
+
+        int size() {
+            return species.length;
+        }
+
+        double x(int i) {
+            return centered.x(i);
+        }
+
+        double y(int i) {
+            return centered.y(i);
+        }
+
+        double z(int i) {
+            return centered.z(i);
+        }
+
+        /* Atoms of a species whose distance from the center of mass is
+         * within eps of r. */
+        int[] withRadius(Element el, double r) {
+            if (byRadius == null) {
+                indexRadii();
+            }
+            int[] atoms = byRadius.get(el);
+            if (atoms == null) {
+                return new int[0];
+            }
+            double[] radii = sortedRadii.get(el);
+            int from = lowerBound(radii, r - eps);
+            int to = lowerBound(radii, Math.nextUp(r + eps));
+            return Arrays.copyOfRange(atoms, from, to);
+        }
+
+        /* Unused atom of a species within eps of a point, or -1 if none. */
+        int findUnused(Element el, double x, double y, double z, boolean[] used) {
+            if (sites == null) {
+                indexSites();
+            }
+            CellList cells = sites.get(el);
+            if (cells == null) {
+                return -1;
+            }
+            for (int j : cells.getNeighbors(x, y, z, eps)) {
+                if (!used[j]) {
+                    return j;
+                }
+            }
+            return -1;
+        }
+
+        private void indexRadii() {
+            Map<Element, List<Integer>> atoms = new EnumMap<Element, List<Integer>>(Element.class);
+            for (int i = 0; i < species.length; i++) {
+                List<Integer> list = atoms.get(species[i]);
+                if (list == null) {
+                    list = new ArrayList<Integer>();
+                    atoms.put(species[i], list);
+                }
+                list.add(i);
+            }
+            final double[] radius = new double[species.length];
+            for (int i = 0; i < species.length; i++) {
+                radius[i] = Math.sqrt(x(i) * x(i) + y(i) * y(i) + z(i) * z(i));
+            }
+            byRadius = new EnumMap<Element, int[]>(Element.class);
+            sortedRadii = new EnumMap<Element, double[]>(Element.class);
+            for (Map.Entry<Element, List<Integer>> e : atoms.entrySet()) {
+                List<Integer> list = e.getValue();
+                Collections.sort(list, new Comparator<Integer>() {
+
+                    public int compare(Integer i, Integer j) {
+                        return Double.compare(radius[i], radius[j]);
+                    }
+                });
+                int[] indices = new int[list.size()];
+                double[] radii = new double[list.size()];
+                for (int k = 0; k < indices.length; k++) {
+                    indices[k] = list.get(k);
+                    radii[k] = radius[indices[k]];
+                }
+                byRadius.put(e.getKey(), indices);
+                sortedRadii.put(e.getKey(), radii);
+            }
+        }
+
+        private void indexSites() {
+            if (byRadius == null) {
+                indexRadii();
+            }
+            sites = new EnumMap<Element, CellList>(Element.class);
+            for (Map.Entry<Element, int[]> e : byRadius.entrySet()) {
+                sites.put(e.getKey(), new CellList(centered, e.getValue(), eps));
+            }
+        }
+
+        private static int lowerBound(double[] sorted, double value) {
+            int lo = 0;
+            int hi = sorted.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (sorted[mid] < value) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    /**
+     * A cached result together with the structure it was computed for, with
+     * coordinates relative to the center of mass, and the anchor atoms used
+     * to align other structures onto it.
+     */
+    private static final class Entry implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        private final Bucket bucket;
+        private final Element[] species;
+        private final double[] coords;
+        /**
+         * Hash of the quantized structure, which names its spill file.
+         */
+        private final long id;
+        /**
+         * Anchor atoms, or -1 if all atoms are at the center of mass or, for
+         * the second anchor, on a line through the first.
+         */
+        private final int anchorA, anchorB;
+        private final Result result;
+
+        Entry(Query query, Result result_in) {
+            bucket = query.bucket;
+            species = query.species;
+            result = result_in;
+            int n = species.length;
+            coords = new double[3 * n];
+            long h = 17;
+            for (int i = 0; i < n; i++) {
+                coords[3 * i] = query.x(i);
+                coords[3 * i + 1] = query.y(i);
+                coords[3 * i + 2] = query.z(i);
+                h = 31 * h + species[i].getAtNo();
+                for (int k = 3 * i; k < 3 * i + 3; k++) {
+                    h = 31 * h + Math.round(coords[k] / query.eps);
+                }
+            }
+            id = h;
+
+            double eps = query.eps;
+            double[] radius = new double[n];
+            double maxRadius = 0;
+            for (int i = 0; i < n; i++) {
+                radius[i] = norm(coords[3 * i], coords[3 * i + 1], coords[3 * i + 2]);
+                maxRadius = Math.max(maxRadius, radius[i]);
+            }
+            if (maxRadius <= eps) {
+                anchorA = anchorB = -1;
+                return;
+            }
+            // Anchors far from the center of mass fix the rotation precisely,
+            // and anchors with few possible images keep the search short.
+            int[] images = countImages(radius, 2 * eps);
+            anchorA = pickAnchor(radius, 0.5 * maxRadius, images);
+            double ax = coords[3 * anchorA] / radius[anchorA];
+            double ay = coords[3 * anchorA + 1] / radius[anchorA];
+            double az = coords[3 * anchorA + 2] / radius[anchorA];
+            double[] offAxis = new double[n];
+            double maxOffAxis = 0;
+            for (int i = 0; i < n; i++) {
+                double x = coords[3 * i], y = coords[3 * i + 1], z = coords[3 * i + 2];
+                offAxis[i] = norm(ay * z - az * y, az * x - ax * z, ax * y - ay * x);
+                maxOffAxis = Math.max(maxOffAxis, offAxis[i]);
+            }
+            anchorB = (maxOffAxis <= eps) ? -1 : pickAnchor(offAxis, 0.5 * maxOffAxis, countImages(offAxis, 2 * eps));
+        }
+
+        /* Number of atoms of the same species with a value within window,
+         * for each atom. */
+        private int[] countImages(double[] value, double window) {
+            int n = species.length;
+            Map<Element, List<Double>> values = new EnumMap<Element, List<Double>>(Element.class);
+            for (int i = 0; i < n; i++) {
+                List<Double> list = values.get(species[i]);
+                if (list == null) {
+                    list = new ArrayList<Double>();
+                    values.put(species[i], list);
+                }
+                list.add(value[i]);
+            }
+            Map<Element, double[]> sorted = new EnumMap<Element, double[]>(Element.class);
+            for (Map.Entry<Element, List<Double>> e : values.entrySet()) {
+                double[] arr = new double[e.getValue().size()];
+                for (int k = 0; k < arr.length; k++) {
+                    arr[k] = e.getValue().get(k);
+                }
+                Arrays.sort(arr);
+                sorted.put(e.getKey(), arr);
+            }
+            int[] count = new int[n];
+            for (int i = 0; i < n; i++) {
+                double[] arr = sorted.get(species[i]);
+                count[i] = Query.lowerBound(arr, Math.nextUp(value[i] + window))
+                        - Query.lowerBound(arr, value[i] - window);
+            }
+            return count;
+        }
+
+        /* Atom with at least the minimum value and the fewest images, with
+         * ties going to the largest value. */
+        private static int pickAnchor(double[] value, double min, int[] images) {
+            int best = -1;
+            for (int i = 0; i < value.length; i++) {
+                if (value[i] >= min && (best < 0 || images[i] < images[best]
+                        || (images[i] == images[best] && value[i] > value[best]))) {
+                    best = i;
+                }
+            }
+            return best;
+        }
+
+        /* Returns the result mapped onto the query structure, or null if the
+         * structures differ. */
+        Result match(Query query) {
+            int n = species.length;
+            if (!bucket.equals(query.bucket) || n != query.size()) {
+                return null;
+            }
+            double eps = query.eps;
+            boolean identical = true;
+            for (int i = 0; i < n && identical; i++) {
+                identical = species[i] == query.species[i]
+                        && Math.abs(coords[3 * i] - query.x(i)) <= eps
+                        && Math.abs(coords[3 * i + 1] - query.y(i)) <= eps
+                        && Math.abs(coords[3 * i + 2] - query.z(i)) <= eps;
+            }
+            if (identical) {
+                return result;
+            }
+            if (anchorA < 0) {
+                return null;
+            }
+            double[] a = point(coords, anchorA);
+            double[] b = (anchorB < 0) ? null : point(coords, anchorB);
+            double[] frame = frame(a, b);
+            double ra = norm(a[0], a[1], a[2]);
+            for (int ia : query.withRadius(species[anchorA], ra)) {
+                double[] qa = {query.x(ia), query.y(ia), query.z(ia)};
+                if (b == null) {
+                    Result mapped = align(query, frame, frame(qa, null));
+                    if (mapped != null) {
+                        return mapped;
+                    }
+                    continue;
+                }
+                double rb = norm(b[0], b[1], b[2]);
+                double dot = a[0] * b[0] + a[1] * b[1] + a[2] * b[2];
+                for (int ib : query.withRadius(species[anchorB], rb)) {
+                    double[] qb = {query.x(ib), query.y(ib), query.z(ib)};
+                    double qdot = qa[0] * qb[0] + qa[1] * qb[1] + qa[2] * qb[2];
+                    if (ib == ia || Math.abs(qdot - dot) > 2 * eps * (ra + rb)) {
+                        continue;
+                    }
+                    Result mapped = align(query, frame, frame(qa, qb));
+                    if (mapped != null) {
+                        return mapped;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /* Tries the proper and improper rotations taking the orthonormal
+         * frame of the anchors onto the frame of their images. */
+        private Result align(Query query, double[] from, double[] to) {
+            for (int sign = 1; sign >= -1; sign -= 2) {
+                double[] rot = new double[9];
+                for (int i = 0; i < 3; i++) {
+                    for (int j = 0; j < 3; j++) {
+                        rot[3 * i + j] = to[i] * from[j] + to[3 + i] * from[3 + j] + sign * to[6 + i] * from[6 + j];
+                    }
+                }
+                int[] toQuery = map(query, rot);
+                if (toQuery != null) {
+                    return new Result(result, toQuery, rot, query.species);
+                }
+            }
+            return null;
+        }
+
+        /* Image in the query of each atom under rot, or null if some atom
+         * has no image. */
+        private int[] map(Query query, double[] rot) {
+            int n = species.length;
+            int[] toQuery = new int[n];
+            boolean[] used = new boolean[n];
+            for (int i = 0; i < n; i++) {
+                double x = coords[3 * i], y = coords[3 * i + 1], z = coords[3 * i + 2];
+                int j = query.findUnused(species[i], rot[0] * x + rot[1] * y + rot[2] * z,
+                        rot[3] * x + rot[4] * y + rot[5] * z, rot[6] * x + rot[7] * y + rot[8] * z, used);
+                if (j < 0) {
+                    return null;
+                }
+                used[j] = true;
+                toQuery[i] = j;
+            }
+            return toQuery;
+        }
+
+        private static double[] point(double[] coords, int i) {
+            return new double[]{coords[3 * i], coords[3 * i + 1], coords[3 * i + 2]};
+        }
+
+        /* Orthonormal frame, packed row by row, with the first axis along a
+         * and the second in the plane of a and b.  If b is null, the second
+         * axis is any direction perpendicular to a. */
+        private static double[] frame(double[] a, double[] b) {
+            double[] f = new double[9];
+            double ra = norm(a[0], a[1], a[2]);
+            for (int k = 0; k < 3; k++) {
+                f[k] = a[k] / ra;
+            }
+            double[] v;
+            if (b != null) {
+                v = b.clone();
+            } else {
+                // Any axis not parallel to a.
+                v = new double[3];
+                int smallest = 0;
+                for (int k = 1; k < 3; k++) {
+                    if (Math.abs(f[k]) < Math.abs(f[smallest])) {
+                        smallest = k;
+                    }
+                }
+                v[smallest] = 1;
+            }
+            double d = v[0] * f[0] + v[1] * f[1] + v[2] * f[2];
+            for (int k = 0; k < 3; k++) {
+                v[k] -= d * f[k];
+            }
+            double rv = norm(v[0], v[1], v[2]);
+            for (int k = 0; k < 3; k++) {
+                f[3 + k] = v[k] / rv;
+            }
+            f[6] = f[1] * f[5] - f[2] * f[4];
+            f[7] = f[2] * f[3] - f[0] * f[5];
+            f[8] = f[0] * f[4] - f[1] * f[3];
+            return f;
+        }
+
+        private static double norm(double x, double y, double z) {
+            return Math.sqrt(x * x + y * y + z * z);
+        }
+    }
+
+    /**
+     * Immutable result of a symmetry analysis: the point group and the
+     * symmetry orbits of the atoms.  Atom indices refer to the order of atoms
+     * in the analyzed Molecule, and the point group operations to its
+     * coordinates relative to the center of mass.
+     */
+    public static final class Result implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        private final String schSymbol;
+        private final PointGroup pointGroup;
+        private final int[][] orbits;
+        private final int[] orbitId;
+        private final Element[] orbitSpecies;
+
+        private Result(Molecule mol, double[] tolerances) {
+            int n = mol.size();
+            SymmetryAnalyzer analyzer = new SymmetryAnalyzer(mol, tolerances[0], tolerances[1], tolerances[2]);
+            schSymbol = analyzer.getPointGroupSymbol();
+            pointGroup = analyzer.getPointGroup();
+            orbitId = new int[n];
+            if (n <= 1) {
+                // No analysis of orbits is done for single atoms.
+                orbits = new int[n][];
+                if (n == 1) {
+                    orbits[0] = new int[]{0};
+                }
+            } else {
+                List<int[]> allOrbits = analyzer.getOrbits();
+                orbits = allOrbits.toArray(new int[allOrbits.size()][]);
+                for (int i = 0; i < n; i++) {
+                    orbitId[i] = analyzer.getOrbitOf(i);
+                }
+            }
+            orbitSpecies = new Element[orbits.length];
+            for (int k = 0; k < orbits.length; k++) {
+                orbitSpecies[k] = mol.getAtomSpecies(orbits[k][0]);
+            }
+        }
+
+        /* The result of another structure mapped onto this one, where atom i
+         * of the other structure is atom toQuery[i] of this one and rot takes
+         * the coordinates of the other structure onto this one. */
+        private Result(Result source, int[] toQuery, double[] rot, Element[] species) {
+            schSymbol = source.schSymbol;
+            if (source.pointGroup == null) {
+                pointGroup = null;
+            } else {
+                List<SymmetryOperation> ops = new ArrayList<SymmetryOperation>(source.pointGroup.getOperations().size());
+                for (SymmetryOperation op : source.pointGroup) {
+                    ops.add(op.rotate(rot));
+                }
+                pointGroup = new PointGroup(source.pointGroup.getSchSym(), ops,
+                        source.pointGroup.getMultiplicationTable());
+            }
+            orbits = new int[source.orbits.length][];
+            for (int k = 0; k < orbits.length; k++) {
+                int[] orbit = new int[source.orbits[k].length];
+                for (int m = 0; m < orbit.length; m++) {
+                    orbit[m] = toQuery[source.orbits[k][m]];
+                }
+                Arrays.sort(orbit);
+                orbits[k] = orbit;
+            }
+            Arrays.sort(orbits, new Comparator<int[]>() {
+
+                public int compare(int[] o1, int[] o2) {
+                    return (o1[0] < o2[0]) ? -1 : ((o1[0] == o2[0]) ? 0 : 1);
+                }
+            });
+            orbitId = new int[toQuery.length];
+            orbitSpecies = new Element[orbits.length];
+            for (int k = 0; k < orbits.length; k++) {
+                for (int i : orbits[k]) {
+                    orbitId[i] = k;
+                }
+                orbitSpecies[k] = species[orbits[k][0]];
+            }
+        }
+
+        /**
+         * @return Schoenflies symbol of point group.
+         */
+        public String getPointGroupSymbol() {
+            return schSymbol;
+        }
+
+        /**
+         * @return Point group, or null for a single atom.
+         */
+        public PointGroup getPointGroup() {
+            return pointGroup;
+        }
+
+        /**
+         * @return Symmetry information with all symmetry operations.
+         */
+        public String getSymmetryInfo() {
+            return (pointGroup == null) ? "Point group : " + schSymbol + "\n" : pointGroup.toString();
+        }
+
+        /**
+         * @return Atom indices of each orbit in ascending order, with orbits
+         * ordered by their first atom.
+         * @see SymmetryAnalyzer#getOrbits()
+         */
+        public List<int[]> getOrbits() {
+            List<int[]> copy = new ArrayList<int[]>(orbits.length);
+            for (int[] orbit : orbits) {
+                copy.add(orbit.clone());
+            }
+            return copy;
+        }
+
+        /**
+         * @param atomIndex Index of atom.
+         * @return Index of orbit of atom in {@link #getOrbits()}.
+         */
+        public int getOrbitOf(int atomIndex) {
+            return orbitId[atomIndex];
+        }
+
+        /**
+         * @param species Species of atoms.
+         * @return Index of the first atom of each orbit of species.
+         * @see SymmetryAnalyzer#getOrbitRepresentatives(Element)
+         */
+        public int[] getOrbitRepresentatives(Element species) {
+            int[] reps = new int[orbits.length];
+            int count = 0;
+            for (int k = 0; k < orbits.length; k++) {
+                if (orbitSpecies[k] == species) {
+                    reps[count++] = orbits[k][0];
+                }
+            }
+            return Arrays.copyOf(reps, count);
+        }
+    }
+}
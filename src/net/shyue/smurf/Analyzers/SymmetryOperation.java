@@ -1,6 +1,6 @@
 package net.shyue.smurf.Analyzers;
 
-import Jama.Matrix;
+import java.io.Serializable;
 import javax.vecmath.Point3d;
 import javax.vecmath.Vector3d;
 import static java.lang.Math.*;
@@ -9,11 +9,17 @@ import static java.lang.Math.*;
  * Symmetry operation object with appropriate static factories to create the
  * various common operations such as inversion, reflection, rotation and roto-
  * reflection.
+ * 
+ * Operations are stored as the top three rows of a 4x4 affine matrix, i.e.
+ * a 3x3 linear part and a translation, packed row by row into 12 doubles.
+ * The bottom row is always (0, 0, 0, 1) and is not stored.  Operations are
+ * immutable.
  * @author shyue
  */
-public final class SymmetryOperation {
+public final class SymmetryOperation implements Serializable {
 
-    private final Matrix OpMatrix;
+    private static final long serialVersionUID = 1L;
+    private final double[] OpMatrix;
     private final String type;
     
     /**
@@ -21,8 +27,8 @@ public final class SymmetryOperation {
      * @return Inversion symmetry operation
      */
     public static SymmetryOperation Inversion() {
-        double [][] M_arr = {{-1, 0,0,0},{0,-1,0,0},{0,0,-1,0},{0,0,0,1}};
-        return new SymmetryOperation("i",new Matrix(M_arr));
+        double[] M_arr = {-1, 0, 0, 0, 0, -1, 0, 0, 0, 0, -1, 0};
+        return new SymmetryOperation("i", M_arr);
     }
     
     
@@ -74,12 +80,9 @@ public final class SymmetryOperation {
         double m34 = (c*(u2 + v2) - w*(a*u + b*v) 
             + (w*(a*u + b*v) - c*(u2 + v2))*cosT + (a*v - b*u)*l*sinT)/l2;
         
-        Matrix newM = new Matrix(new double[][] {{m11, m12, m13, m14}, 
-                                 {m21, m22, m23, m24},
-                                 {m31, m32, m33, m34},
-                                 {0,   0,   0,   1}});
-        
-        return new SymmetryOperation(name,newM);
+        return new SymmetryOperation(name, new double[] {m11, m12, m13, m14,
+                                 m21, m22, m23, m24,
+                                 m31, m32, m33, m34});
         
         
     }
@@ -91,30 +94,23 @@ public final class SymmetryOperation {
      * @return Reflection symmetry operation
      */
     public static SymmetryOperation Reflect(Point3d origin, Vector3d normal) {
-        Vector3d n = new Vector3d(normal);
-        n.normalize();
-        double a = origin.x;
-        double b = origin.y;
-        double c = origin.z;
-        double u = n.x;
-        double v = n.y;
-        double w = n.z;
-
-        double [][] TranslationArr = {{0,0,0,-a},{0,0,0,-b},{0,0,0,-c},{0,0,0,1}};
-        Matrix TranslationMat = new Matrix(TranslationArr);
-        double Mxx = 1-2*pow(u,2);
-        double Myy = 1-2*pow(v,2);
-        double Mzz = 1-2*pow(w,2);
+        double l = sqrt(normal.x * normal.x + normal.y * normal.y + normal.z * normal.z);
+        double u = normal.x / l;
+        double v = normal.y / l;
+        double w = normal.z / l;
+
+        double Mxx = 1-2*u*u;
+        double Myy = 1-2*v*v;
+        double Mzz = 1-2*w*w;
         double Mxy = -2*u*v;
         double Mxz = -2*u*w;
         double Myz = -2*v*w;
-        double [][] M_Arr = {{Mxx,Mxy,Mxz,0},{Mxy,Myy,Myz,0},{Mxz,Myz,Mzz,0},{0,0,0,1}};
-        Matrix MirrorMat = new Matrix(M_Arr);
-        
-        if (sqrt(pow(a,2)+pow(b,2)+pow(c,2))>1e-6)
-            MirrorMat= TranslationMat.inverse().times(MirrorMat.times(TranslationMat));
+        // Plane through origin is moved by its distance along the normal.
+        double d = 2 * (u * origin.x + v * origin.y + w * origin.z);
         
-        return new SymmetryOperation("\u03C3",MirrorMat);
+        return new SymmetryOperation("\u03C3", new double[] {Mxx, Mxy, Mxz, d * u,
+                                 Mxy, Myy, Myz, d * v,
+                                 Mxz, Myz, Mzz, d * w});
     }
     
     
@@ -128,26 +124,83 @@ public final class SymmetryOperation {
      */
     public static SymmetryOperation RotoReflection(Point3d origin, Vector3d axis,double theta_in) {
         String name = "S" + Long.toString(round(360/theta_in));
-        Matrix newMat = Rotation(origin,axis,theta_in).OpMatrix.times(Reflect(origin,axis).OpMatrix);
-        return new SymmetryOperation(name,newMat);
+        double[] m = new double[12];
+        productInto(Rotation(origin, axis, theta_in), Reflect(origin, axis), m);
+        return new SymmetryOperation(name, m);
     }
     
-    private SymmetryOperation(String type_in, Matrix M_in) {
+    private SymmetryOperation(String type_in, double[] M_in) {
         OpMatrix=M_in; // no error checking for M_in required since private use only
         type = type_in;
     }
 
     
+    /**
+     * Returns an element of the 4x4 affine matrix of the operation.  The last
+     * row is always (0, 0, 0, 1).
+     * @param row Row index, 0 to 3.
+     * @param col Column index, 0 to 3.
+     * @return Matrix element.
+     */
+    public double get(int row, int col) {
+        if (row < 0 || row > 3 || col < 0 || col > 3) {
+            throw new IndexOutOfBoundsException("Invalid matrix index (" + row + ", " + col + ")");
+        }
+        if (row == 3) {
+            return (col == 3) ? 1 : 0;
+        }
+        return OpMatrix[4 * row + col];
+    }
+
     /**
      * Transform supplied Point3d with Symmetry Operation
      * @param coord Point to transform
      * @return Coordinates of transformed point.
      */
     public Point3d transformPoint(Point3d coord) {
-        double [][] tmpcoord_arr = {{coord.x,coord.y,coord.z,1}};
-        Matrix tmpcoord = new Matrix(tmpcoord_arr);
-        tmpcoord = OpMatrix.times(tmpcoord.transpose()).transpose().getMatrix(0,0,0,2);
-        return new Point3d(tmpcoord.get(0, 0),tmpcoord.get(0, 1),tmpcoord.get(0, 2));
+        double[] m = OpMatrix;
+        double x = coord.x;
+        double y = coord.y;
+        double z = coord.z;
+        return new Point3d(m[0] * x + m[1] * y + m[2] * z + m[3],
+                m[4] * x + m[5] * y + m[6] * z + m[7],
+                m[8] * x + m[9] * y + m[10] * z + m[11]);
+    }
+
+    /**
+     * Transforms a point without allocating any objects.
+     * @param x x-coordinate of point.
+     * @param y y-coordinate of point.
+     * @param z z-coordinate of point.
+     * @param out Array of at least length 3 to receive transformed point.
+     */
+    public void transformInto(double x, double y, double z, double[] out) {
+        double[] m = OpMatrix;
+        out[0] = m[0] * x + m[1] * y + m[2] * z + m[3];
+        out[1] = m[4] * x + m[5] * y + m[6] * z + m[7];
+        out[2] = m[8] * x + m[9] * y + m[10] * z + m[11];
+    }
+
+    /**
+     * Transforms an array of packed points, x, y and z of each point in turn.
+     * in and out may be the same array.
+     * @param in Points to transform.
+     * @param out Array of at least the same length to receive transformed
+     * points.
+     */
+    public void transformAll(double[] in, double[] out) {
+        if (in.length % 3 != 0 || out.length < in.length) {
+            throw new IllegalArgumentException("Invalid packed coordinate arrays!");
+        }
+        double[] m = OpMatrix;
+        for (int i = 0; i < in.length; i += 3) {
+            double x = in[i];
+            double y = in[i + 1];
+            double z = in[i + 2];
+            out[i] = m[0] * x + m[1] * y + m[2] * z + m[3];
+            out[i + 1] = m[4] * x + m[5] * y + m[6] * z + m[7];
+            out[i + 2] = m[8] * x + m[9] * y + m[10] * z + m[11];
+        }
     }
     
 
@@ -158,7 +211,32 @@ public final class SymmetryOperation {
      * @return symOp1.symOp2
      */
     public static SymmetryOperation product(SymmetryOperation symOp1, SymmetryOperation symOp2) {
-        return new SymmetryOperation(symOp1.type+"."+symOp2.type,symOp1.OpMatrix.times(symOp2.OpMatrix));
+        double[] m = new double[12];
+        productInto(symOp1, symOp2, m);
+        return new SymmetryOperation(symOp1.type+"."+symOp2.type, m);
+    }
+
+    /**
+     * Computes the product of two symmetry operations without allocating any
+     * objects.  The result is written as the top three rows of the 4x4 affine
+     * matrix, packed row by row, in the same layout as {@link #get(int, int)}.
+     * @param symOp1 First Symmetry operation
+     * @param symOp2 Second Symmetry operation
+     * @param out Array of at least length 12 to receive symOp1.symOp2.
+     */
+    public static void productInto(SymmetryOperation symOp1, SymmetryOperation symOp2, double[] out) {
+        double[] a = symOp1.OpMatrix;
+        double[] b = symOp2.OpMatrix;
+        for (int i = 0; i < 3; i++) {
+            int r = 4 * i;
+            double a0 = a[r];
+            double a1 = a[r + 1];
+            double a2 = a[r + 2];
+            out[r] = a0 * b[0] + a1 * b[4] + a2 * b[8];
+            out[r + 1] = a0 * b[1] + a1 * b[5] + a2 * b[9];
+            out[r + 2] = a0 * b[2] + a1 * b[6] + a2 * b[10];
+            out[r + 3] = a0 * b[3] + a1 * b[7] + a2 * b[11] + a[r + 3];
+        }
     }
     
     /**
@@ -166,7 +244,76 @@ public final class SymmetryOperation {
      * @return Inverse of symmetry operation
      */
     public SymmetryOperation inverse() {
-        return new SymmetryOperation(this.type+"^-1",this.OpMatrix.inverse());
+        double[] m = new double[12];
+        inverseInto(m);
+        return new SymmetryOperation(this.type+"^-1", m);
+    }
+
+    /**
+     * Computes the inverse operation without allocating any objects.  The
+     * result is packed in the same layout as {@link #productInto}.
+     * @param out Array of at least length 12 to receive the inverse.
+     */
+    public void inverseInto(double[] out) {
+        double[] m = OpMatrix;
+        // Inverse of linear part from cofactors.
+        double c00 = m[5] * m[10] - m[6] * m[9];
+        double c01 = m[6] * m[8] - m[4] * m[10];
+        double c02 = m[4] * m[9] - m[5] * m[8];
+        double det = m[0] * c00 + m[1] * c01 + m[2] * c02;
+        if (abs(det) < 1e-12) {
+            throw new RuntimeException("Matrix is singular.");
+        }
+        double r00 = c00 / det;
+        double r01 = (m[2] * m[9] - m[1] * m[10]) / det;
+        double r02 = (m[1] * m[6] - m[2] * m[5]) / det;
+        double r10 = c01 / det;
+        double r11 = (m[0] * m[10] - m[2] * m[8]) / det;
+        double r12 = (m[2] * m[4] - m[0] * m[6]) / det;
+        double r20 = c02 / det;
+        double r21 = (m[1] * m[8] - m[0] * m[9]) / det;
+        double r22 = (m[0] * m[5] - m[1] * m[4]) / det;
+        // Translation of inverse is -R^-1.t
+        double tx = -(r00 * m[3] + r01 * m[7] + r02 * m[11]);
+        double ty = -(r10 * m[3] + r11 * m[7] + r12 * m[11]);
+        double tz = -(r20 * m[3] + r21 * m[7] + r22 * m[11]);
+        out[0] = r00;
+        out[1] = r01;
+        out[2] = r02;
+        out[3] = tx;
+        out[4] = r10;
+        out[5] = r11;
+        out[6] = r12;
+        out[7] = ty;
+        out[8] = r20;
+        out[9] = r21;
+        out[10] = r22;
+        out[11] = tz;
+    }
+
+    /**
+     * Returns the same operation expressed in a rotated frame, i.e.
+     * rot.op.rot^T, for points rotated about the origin by rot.
+     * @param rot Orthogonal 3x3 matrix packed row by row.
+     * @return Operation in the rotated frame.
+     */
+    SymmetryOperation rotate(double[] rot) {
+        double[] m = OpMatrix;
+        // rm = rot.M for the linear part, then M' = rm.rot^T and t' = rot.t
+        double[] rm = new double[9];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                rm[3 * i + j] = rot[3 * i] * m[j] + rot[3 * i + 1] * m[4 + j] + rot[3 * i + 2] * m[8 + j];
+            }
+        }
+        double[] out = new double[12];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                out[4 * i + j] = rm[3 * i] * rot[3 * j] + rm[3 * i + 1] * rot[3 * j + 1] + rm[3 * i + 2] * rot[3 * j + 2];
+            }
+            out[4 * i + 3] = rot[3 * i] * m[3] + rot[3 * i + 1] * m[7] + rot[3 * i + 2] * m[11];
+        }
+        return new SymmetryOperation(type, out);
     }
 
     /**
@@ -175,10 +322,10 @@ public final class SymmetryOperation {
      */
     @Override
     public String toString(){
-        String output = type +"\n";
+        StringBuilder output = new StringBuilder(type).append('\n');
         for (int i=0;i<3;i++)
-                output += String.format("%.4f %.4f %.4f\n", OpMatrix.get(i, 0), OpMatrix.get(i, 1), OpMatrix.get(i, 2));
-        return output;
+                output.append(String.format("%.4f %.4f %.4f\n", OpMatrix[4 * i], OpMatrix[4 * i + 1], OpMatrix[4 * i + 2]));
+        return output.toString();
     }
 
 
@@ -191,22 +338,26 @@ public final class SymmetryOperation {
      * @return
      */
     public static boolean isEqualWithinTolerance(SymmetryOperation symOp1, SymmetryOperation symOp2, double tolerance) {
-        boolean equal = true;
-        for (int i=0;i<4;i++)
-        {
-            for(int j=0;j<4;j++)
-            {
-
-                if(abs(symOp1.OpMatrix.get(i, j)-symOp2.OpMatrix.get(i, j))>tolerance)
-                {
-                    equal = false;
-                    break;
-                }
+        return isEqualWithinTolerance(symOp1, symOp2.OpMatrix, tolerance);
+    }
+
+    /**
+     * Compares the matrix elements of a symmetry operation with a packed
+     * matrix as filled in by {@link #productInto} or {@link #inverseInto}.
+     * @param symOp Symmetry operation
+     * @param packed Packed affine matrix
+     * @param tolerance
+     * @return
+     */
+    public static boolean isEqualWithinTolerance(SymmetryOperation symOp, double[] packed, double tolerance) {
+        double[] m1 = symOp.OpMatrix;
+        double[] m2 = packed;
+        for (int i = 0; i < 12; i++) {
+            if (abs(m1[i] - m2[i]) > tolerance) {
+                return false;
             }
-            if (!equal)
-                break;
         }
-        return equal;
+        return true;
     }
     
 }
@@ -0,0 +1,188 @@
+package net.shyue.smurf.Analyzers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An indexed set of symmetry operations in which two operations are the same
+ * if all their matrix elements agree within a tolerance.  Operations are
+ * hashed on their matrix elements quantized into bins much wider than the
+ * tolerance, so a lookup only compares against the few operations sharing a
+ * bin instead of scanning the whole set.  Elements lying within tolerance of
+ * a bin boundary are also looked up in the adjacent bin.  Lookups reuse
+ * scratch arrays, so a set must not be shared between threads.
+ * @author shyue
+ */
+final class SymmetryOperationSet {
+
+    /**
+     * Width of the quantization bins in units of the tolerance.
+     */
+    private static final double BIN_WIDTH = 10;
+    private final double tolerance;
+    private final double binSize;
+    private final List<SymmetryOperation> operations;
+    private final Map<Long, List<Integer>> bins;
+    private final double[] packed = new double[12];
+    private final int[] bin = new int[12];
+    private final int[] alt = new int[12];
+
+    /**
+     * Creates an empty set.
+     * @param tolerance_in Tolerance for matrix elements to be considered equal.
+     */
+    SymmetryOperationSet(double tolerance_in) {
+        tolerance = tolerance_in;
+        binSize = BIN_WIDTH * tolerance_in;
+        operations = new ArrayList<SymmetryOperation>();
+        bins = new HashMap<Long, List<Integer>>();
+    }
+
+    /**
+     * Adds an operation unless an equivalent one is already in the set.
+     * @param op Symmetry operation.
+     * @return Index of the new or existing equivalent operation.
+     */
+    int add(SymmetryOperation op) {
+        for (int e = 0; e < 12; e++) {
+            packed[e] = op.get(e / 4, e % 4);
+        }
+        // The search leaves the primary bin of op in bin.
+        int index = indexOf(packed);
+        if (index < 0) {
+            index = operations.size();
+            operations.add(op);
+            Long key = key(bin);
+            List<Integer> members = bins.get(key);
+            if (members == null) {
+                members = new ArrayList<Integer>(2);
+                bins.put(key, members);
+            }
+            members.add(index);
+        }
+        return index;
+    }
+
+    /**
+     * @param op Symmetry operation.
+     * @return Index of an equivalent operation in the set, or -1 if none.
+     */
+    int indexOf(SymmetryOperation op) {
+        for (int e = 0; e < 12; e++) {
+            packed[e] = op.get(e / 4, e % 4);
+        }
+        return indexOf(packed);
+    }
+
+    /**
+     * Looks up an operation given as a packed affine matrix, as filled in by
+     * {@link SymmetryOperation#productInto}, without creating the operation.
+     * @param m Packed affine matrix.
+     * @return Index of an equivalent operation in the set, or -1 if none.
+     */
+    int indexOf(double[] m) {
+        quantize(m);
+        return find(m, 0);
+    }
+
+    /**
+     * @param index Index of operation.
+     * @return Operation at index.
+     */
+    SymmetryOperation get(int index) {
+        return operations.get(index);
+    }
+
+    /**
+     * @return Number of distinct operations.
+     */
+    int size() {
+        return operations.size();
+    }
+
+    /**
+     * @return Unmodifiable view of the operations in order of insertion.
+     */
+    List<SymmetryOperation> getOperations() {
+        return Collections.unmodifiableList(operations);
+    }
+
+    /**
+     * Computes the multiplication table of the set.  Entry [i][j] is the
+     * index of the product of operations i and j, or -1 if the product is not
+     * in the set.
+     * @return Multiplication table.
+     */
+    int[][] multiplicationTable() {
+        int n = operations.size();
+        int[][] table = new int[n][n];
+        double[] m = new double[12];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                SymmetryOperation.productInto(operations.get(i), operations.get(j), m);
+                table[i][j] = indexOf(m);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Bins the 12 affine matrix elements of an operation.  alt receives the
+     * neighbouring bin for elements within tolerance of a bin boundary, or the
+     * same bin otherwise.  Bins are centred on integer multiples of the bin
+     * size so that the common values 0 and 1 never lie near a boundary.
+     */
+    private void quantize(double[] m) {
+        double margin = tolerance / binSize;
+        for (int e = 0; e < 12; e++) {
+            double v = m[e] / binSize + 0.5;
+            int b = (int) Math.floor(v);
+            double frac = v - b;
+            bin[e] = b;
+            if (frac < margin) {
+                alt[e] = b - 1;
+            } else if (frac > 1 - margin) {
+                alt[e] = b + 1;
+            } else {
+                alt[e] = b;
+            }
+        }
+    }
+
+    /**
+     * Searches all combinations of bins and alternative bins from element e
+     * onwards.
+     */
+    private int find(double[] m, int e) {
+        if (e == 12) {
+            List<Integer> members = bins.get(key(bin));
+            if (members != null) {
+                for (int index : members) {
+                    if (SymmetryOperation.isEqualWithinTolerance(operations.get(index), m, tolerance)) {
+                        return index;
+                    }
+                }
+            }
+            return -1;
+        }
+        int index = find(m, e + 1);
+        if (index < 0 && alt[e] != bin[e]) {
+            int b = bin[e];
+            bin[e] = alt[e];
+            index = find(m, e + 1);
+            bin[e] = b;
+        }
+        return index;
+    }
+
+    private static Long key(int[] bin) {
+        long h = 17;
+        for (int b : bin) {
+            h = 31 * h + b;
+        }
+        return h;
+    }
+}
@@ -19,13 +19,12 @@ import net.shyue.smurf.HighThroughput.HTProcessor;
 import net.shyue.smurf.Parser.MolFileParser;
 import net.shyue.smurf.Parser.MolFileParserFactory;
 import net.shyue.smurf.Parser.MolParser.MolParserException;
-import net.shyue.smurf.Structure.Atom;
 import net.shyue.smurf.Analyzers.ConformerSimilarityComparator;
 import net.shyue.smurf.Analyzers.NetworkRepresentation;
 import net.shyue.smurf.Structure.MolBuilder.BuilderException;
 import net.shyue.smurf.Structure.MolEditor;
 import net.shyue.smurf.Structure.Molecule;
-import net.shyue.smurf.Analyzers.SymmetryAnalyzer;
+import net.shyue.smurf.Analyzers.SymmetryAnalyzerCache;
 import net.shyue.smurf.Analyzers.VolumeCalculator;
 import net.shyue.smurf.Parser.GaussianOutputFileParser;
 import net.shyue.smurf.Parser.GaussianOutputFileParser.CORRECTION;
@@ -137,16 +136,16 @@ public final class CommandLineInterface {
                         VolumeCalculator cal = new VolumeCalculator(mol);
                         System.out.println(cal.getVolume());
                     } else if (infoType.matches("pointgroup")) {
-                        SymmetryAnalyzer symfind = new SymmetryAnalyzer(mol);
+                        SymmetryAnalyzerCache.Result symfind = SymmetryAnalyzerCache.getShared().analyze(mol);
                         System.out.println(symfind.getPointGroupSymbol());
                     } else if (infoType.equals("network")) {
                         NetworkRepresentation netRep = new NetworkRepresentation(mol);
                         System.out.println("Index\tSpecies\tNearest Neighbours");
                         System.out.println("-----\t-------\t------------------");
-                        for (Atom at1 : mol) {
-                            System.out.println(at1);
-                            for (Atom at2 : netRep.getAdjacentAtoms(at1)) {
-                                System.out.format("\t\t%s\n", at2);
+                        for (int i = 0; i < mol.size(); i++) {
+                            System.out.println(mol.get(i));
+                            for (int k = 0; k < netRep.degree(i); k++) {
+                                System.out.format("\t\t%s\n", mol.get(netRep.neighbor(i, k)));
                             }
                             System.out.println("-----\t-------\t------------------");
                         }
@@ -337,7 +336,7 @@ public final class CommandLineInterface {
 
                     Molecule mol = parseMoleculeFile(filename);
 
-                    SymmetryAnalyzer symfind = new SymmetryAnalyzer(mol);
+                    SymmetryAnalyzerCache.Result symfind = SymmetryAnalyzerCache.getShared().analyze(mol);
 
                     System.out.println("File : " + filename);
                     if (arguments.get("symmetry").matches("full")) {
@@ -427,7 +426,7 @@ public final class CommandLineInterface {
                     try {
                         Molecule mol = parseMoleculeFile(filename);
                         MolEditor mEditor = new MolEditor(mol);
-                        mEditor.rotate(mol.get(atom1), mol.get(atom2), angle);
+                        mEditor.rotate(atom1, atom2, angle);
                         displayMolecule(mEditor.build(), "xyz");
                     } catch (Exception e) {
                         System.out.println("An error has occured");
@@ -20,7 +20,7 @@ import net.shyue.smurf.Analyzers.ConformerSimilarityComparator;
 import net.shyue.smurf.Structure.Molecule;
 import net.shyue.smurf.Structure.MolBuilder.BuilderException;
 import net.shyue.smurf.Structure.MolEditor;
-import net.shyue.smurf.Analyzers.SymmetryAnalyzer;
+import net.shyue.smurf.Analyzers.SymmetryAnalyzerCache;
 import net.shyue.smurf.Analyzers.VolumeCalculator;
 import net.shyue.smurf.Analyzers.BondLengthsAnalyzer;
 import net.shyue.smurf.Exporter.POSCARExporter;
@@ -269,7 +269,7 @@ public class SMURF extends JFrame {
                     output = String.format("%s %.4f\n", "Total Molecular Weight", mol.getMolWt());
                     break;
                 case SYMMETRY:
-                    SymmetryAnalyzer symfind = new SymmetryAnalyzer(mol);
+                    SymmetryAnalyzerCache.Result symfind = SymmetryAnalyzerCache.getShared().analyze(mol);
                     output = "The point group of this molecule is " + symfind.getSymmetryInfo();
                     break;
                 case SMART_NAME:
@@ -712,9 +712,7 @@ public class SMURF extends JFrame {
                 if (selectedOption == 0) {
                     int angle = Integer.parseInt(angleSpinner.getValue().toString());
                     MolEditor mGen = new MolEditor(currentMol);
-                    Atom at1 = currentMol.get(molDisplay.getLastSelectedAtom());
-                    Atom at2 = currentMol.get(molDisplay.getSecondLastSelectedAtom());
-                    mGen.rotate(at2, at1, angle);
+                    mGen.rotate(molDisplay.getSecondLastSelectedAtom(), molDisplay.getLastSelectedAtom(), angle);
                     try {
                         setMolecule(mGen.build());
                     } catch (BuilderException ex) {
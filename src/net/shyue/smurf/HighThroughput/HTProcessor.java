@@ -3,12 +3,12 @@ package net.shyue.smurf.HighThroughput;
 import net.shyue.smurf.Analyzers.NetworkRepresentation;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import net.shyue.smurf.Exporter.MolFileExporter;
 import net.shyue.smurf.Exporter.ZMATFileExporter;
-import net.shyue.smurf.Structure.Atom;
 import net.shyue.smurf.Structure.MolBuilder.BuilderException;
-import net.shyue.smurf.Analyzers.SymmetryAnalyzer;
+import net.shyue.smurf.Analyzers.SymmetryAnalyzerCache;
 import net.shyue.smurf.Structure.Element;
 import net.shyue.smurf.Structure.Molecule;
 import net.shyue.smurf.Structure.MolEditor;
@@ -23,7 +23,7 @@ public final class HTProcessor {
     private List<Molecule> newStructures;
     private StringBuilder log;
     private Molecule centeredMolecule;
-    private SymmetryAnalyzer msf;
+    private SymmetryAnalyzerCache.Result msf;
     private MolEditor mEdit;
     private NetworkRepresentation netRep;
 
@@ -33,8 +33,8 @@ public final class HTProcessor {
      * 
      */
     public HTProcessor(Molecule startingStructure) {
-        msf = new SymmetryAnalyzer(startingStructure);
-        centeredMolecule = msf.getCenteredMolecule();
+        msf = SymmetryAnalyzerCache.getShared().analyze(startingStructure);
+        centeredMolecule = startingStructure.getCenteredCopy();
         mEdit = new MolEditor(centeredMolecule);
         netRep = new NetworkRepresentation(centeredMolecule);
         log = new StringBuilder();
@@ -47,12 +47,12 @@ public final class HTProcessor {
      */
     public void substituteAllDistinct(Element speciesToSub, SUBSTITUENT substituent) {
         newStructures = new ArrayList<Molecule>();
-        List<Atom> distinctH = msf.getAllDistinct(speciesToSub);
+        int[] distinctH = msf.getOrbitRepresentatives(speciesToSub);
         log.append("\tPoint group : " + msf.getSymmetryInfo() + "\n" +
-                "\t\t" + Integer.toString(distinctH.size()) + " distinct hydrogens\n");
+                "\t\t" + Integer.toString(distinctH.length) + " distinct hydrogens\n");
         int counter = 1;
-        for (Atom at : distinctH) {
-            mEdit.substitute(centeredMolecule.indexOf(at), substituent);
+        for (int index : distinctH) {
+            mEdit.substitute(index, substituent);
             String newName = mEdit.getName();
             if ((centeredMolecule.getCharge()==1 && substituent == SUBSTITUENT.METHYL)||
                     (centeredMolecule.getCharge()==-1 && substituent == SUBSTITUENT.TRIFLUOROMETHANE))
@@ -80,16 +80,25 @@ public final class HTProcessor {
      */
     public void extendBranch(int heavyAtomIndex, SUBSTITUENT substituent) {
         newStructures = new ArrayList<Molecule>();
-        Atom heavyAtom = centeredMolecule.get(heavyAtomIndex);
-        List<Atom> connectedAtoms = netRep.getAdjacentAtoms(heavyAtom);
-        List<Atom> distinctH = msf.getDistinctSet(Element.H, connectedAtoms);
+        List<Integer> distinctH = new ArrayList<Integer>();
+        BitSet foundOrbits = new BitSet();
+        for (int k = 0, degree = netRep.degree(heavyAtomIndex); k < degree; k++) {
+            int adj = netRep.neighbor(heavyAtomIndex, k);
+            if (centeredMolecule.getAtomSpecies(adj) == Element.H) {
+                int orbit = msf.getOrbitOf(adj);
+                if (!foundOrbits.get(orbit)) {
+                    foundOrbits.set(orbit);
+                    distinctH.add(adj);
+                }
+            }
+        }
         log.append("Point group : " + msf.getSymmetryInfo() + "\n\t");
         log.append(distinctH.size());
         log.append(" distinct hydrogens connected to atom ");
         log.append(heavyAtomIndex);
         int counter = 1;
-        for (Atom at : distinctH) {
-            mEdit.substitute(centeredMolecule.indexOf(at), substituent);
+        for (int index : distinctH) {
+            mEdit.substitute(index, substituent);
             mEdit.setName(mEdit.getName() + "_" + String.valueOf(counter));
             try {
                 newStructures.add(mEdit.build());
@@ -352,11 +352,11 @@ public class GaussianOutputFileParser extends MolFileParser {
         Pattern coordmatch = Pattern.compile("[\\d]+\\s+([\\d]+)\\s+[\\d]+\\s+([\\d\\.-]+)\\s+([\\d\\.-]+)\\s+([\\d\\.-]+)", Pattern.MULTILINE);
         Matcher m = coordmatch.matcher(coordTxt);
         while (m.find()) {
-            Element species = Element.getSpecies(Integer.parseInt(m.group(1)));
+            Element species = Element.parseSpecies(coordTxt, m.start(1), m.end(1));
             double x = Double.parseDouble(m.group(2));
             double y = Double.parseDouble(m.group(3));
             double z = Double.parseDouble(m.group(4));
-            startingCoordBuilder.append(species + " " + x + " " +y +" "+z + "\n");
+            startingCoordBuilder.append(species).append(' ').append(x).append(' ').append(y).append(' ').append(z).append('\n');
         }
         startingCoord = startingCoordBuilder.toString();
     }
@@ -374,12 +374,12 @@ public class GaussianOutputFileParser extends MolFileParser {
         Pattern coordmatch = Pattern.compile("[\\d]+\\s+([\\d]+)\\s+[\\d]+\\s+([\\d\\.-]+)\\s+([\\d\\.-]+)\\s+([\\d\\.-]+)", Pattern.MULTILINE);
         Matcher m = coordmatch.matcher(coordTxt);
         while (m.find()) {
-            Element species = Element.getSpecies(Integer.parseInt(m.group(1)));
+            Element species = Element.parseSpecies(coordTxt, m.start(1), m.end(1));
             double x = Double.parseDouble(m.group(2));
             double y = Double.parseDouble(m.group(3));
             double z = Double.parseDouble(m.group(4));
             mBuilder.addAtom(species, x, y, z);
-            coordBuilder.append(species + " " + x + " " +y +" "+z + "\n");
+            coordBuilder.append(species).append(' ').append(x).append(' ').append(y).append(' ').append(z).append('\n');
         }
         endingCoord = coordBuilder.toString();
     }
@@ -45,7 +45,7 @@ public class MixedCoordParser implements MolParser {
 
         List<String> parsedSpecies = new ArrayList<String>(coordarr.length * 2);
 
-        String species = "";
+        Element species;
         for (int i = 0; i < coordarr.length; i++) {
             //System.out.println("Parsing " + coordarr[i]);
             if (xyzPattern.matcher(coordarr[i]).matches()) {
@@ -53,14 +53,13 @@ public class MixedCoordParser implements MolParser {
                 xyzMatcher = xyzPattern.matcher(coordarr[i]);
                 while (xyzMatcher.find()) {
 
-                    speciesMatcher = mixedSpeciesPattern.matcher(xyzMatcher.group(1));
+                    speciesMatcher = mixedSpeciesPattern.matcher(coordarr[i]);
+                    speciesMatcher.region(xyzMatcher.start(1), xyzMatcher.end(1));
 
                     if (speciesMatcher.find()) {
                         parsedSpecies.add(xyzMatcher.group(1));
-                        species = speciesMatcher.group(1);
-                    } else {
-                        species = xyzMatcher.group(1);
                     }
+                    species = Element.parseLabel(coordarr[i], xyzMatcher.start(1), xyzMatcher.end(1));
                     String[] tokenizedCoord = coordarr[i].trim().split("[,\\s]+");
                     Point3d coord;
                     if (tokenizedCoord.length > 4) {
@@ -71,7 +70,7 @@ public class MixedCoordParser implements MolParser {
                                 Double.parseDouble(tokenizedCoord[2]), Double.parseDouble(tokenizedCoord[3]));
                     }
                     //System.out.println(coord);
-                    mBuilder.addAtom(Element.valueOf(species), coord);
+                    mBuilder.addAtom(species, coord);
                 }
             }else if (zmatPattern.matcher(coordarr[i]).matches()) {
                 //System.out.println("ZMAT found " + coordarr[i]);
@@ -80,23 +79,20 @@ public class MixedCoordParser implements MolParser {
                     double[] var = new double[3];
                     int[] NN = new int[3];
                     speciesMatcher = mixedSpeciesPattern.matcher(tokenizedCoord[0]);
+                    species = Element.parseLabel(tokenizedCoord[0], 0, tokenizedCoord[0].length());
                     if (speciesMatcher.matches()) {
                         parsedSpecies.add(tokenizedCoord[0]);
-                        if (speciesMatcher.find()) {
-                            species = speciesMatcher.group(1);
-                        }
                         for (int j = 1; j <= (tokenizedCoord.length - 1) / 2; j++) {
                             NN[j - 1] = parsedSpecies.indexOf(tokenizedCoord[2 * j - 1]) + 1;
                             var[j - 1] = variables.get(tokenizedCoord[2 * j]);
                         }
                     } else {
-                        species = tokenizedCoord[0];
                         for (int j = 1; j <= (tokenizedCoord.length - 1) / 2; j++) {
                             NN[j - 1] = Integer.parseInt(tokenizedCoord[2 * j - 1]);
                             var[j - 1] = variables.get(tokenizedCoord[2 * j]);
                         }
                     }
-                    mBuilder.addAtom(Element.valueOf(species), NN[0] - 1, var[0], NN[1] - 1, var[1], NN[2] - 1, var[2]);
+                    mBuilder.addAtom(species, NN[0] - 1, var[0], NN[1] - 1, var[1], NN[2] - 1, var[2]);
                 }
             } 
         }
@@ -31,7 +31,6 @@ public class XYZFileParser extends MolFileParser {
         String filecontents = readWholeFile();
         Pattern numAtomsPattern = Pattern.compile("\\d+");
         Pattern xyzPattern = Pattern.compile("(\\w+)\\s+([\\d\\.eE\\-]+)\\s+([\\d\\.eE\\-]+)\\s+([\\d\\.eE\\-]+)");
-        Pattern mixedSpeciesPattern = Pattern.compile("([A-Za-z]+)\\d+");
         boolean numAtomsParsed = false;
         String name = null;
         int numAtoms = 0;
@@ -41,7 +40,7 @@ public class XYZFileParser extends MolFileParser {
         try {
             while ((str = br.readLine()) != null) {
                 str = str.trim();
-                if (!str.matches("")) {
+                if (str.length() > 0) {
                     if (numAtomsPattern.matcher(str).matches()) {
                         numAtoms = Integer.parseInt(str);
                         //System.out.println(numAtoms);
@@ -50,16 +49,8 @@ public class XYZFileParser extends MolFileParser {
                         Matcher xyzMatcher = xyzPattern.matcher(str);
 
                         if (xyzMatcher.find()) {
-                            String species = xyzMatcher.group(1);
-                            Matcher mixedSpeciesMatcher = mixedSpeciesPattern.matcher(species);
-                            if (mixedSpeciesMatcher.find()) {
-                                species = mixedSpeciesMatcher.group(1);
-                            } else if (species.matches("\\d+")) {
-                                species = Element.getSpecies(Integer.parseInt(species)).toString();
-                            } else {
-                                species = xyzMatcher.group(1);
-                            }
-                            mBuilder.addAtom(Element.valueOf(species), Double.parseDouble(xyzMatcher.group(2)),
+                            Element species = Element.parseSpecies(str, xyzMatcher.start(1), xyzMatcher.end(1));
+                            mBuilder.addAtom(species, Double.parseDouble(xyzMatcher.group(2)),
                                     Double.parseDouble(xyzMatcher.group(3)), Double.parseDouble(xyzMatcher.group(4)));
                             atomCount++;
 
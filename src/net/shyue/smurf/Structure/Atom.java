@@ -42,8 +42,7 @@ public final class Atom implements Comparable<Atom> {
      * @param coord_in Coordinates of Atom
      */
     public Atom(String species_in, Point3d coord_in) {
-        String speciesstr = species_in.substring(0, 1).toUpperCase() + species_in.substring(1, species_in.length()).toLowerCase();
-        species = Element.valueOf(speciesstr);
+        species = Element.parseSymbol(species_in, 0, species_in.length());
         coord = new Point3d(coord_in);
     }
 
@@ -96,6 +95,36 @@ public final class Atom implements Comparable<Atom> {
     public Point3d getCoord() {
         return new Point3d(coord);
     }
+
+    /**
+     * @return x-coordinate of Atom.
+     */
+    public double getX() {
+        return coord.x;
+    }
+
+    /**
+     * @return y-coordinate of Atom.
+     */
+    public double getY() {
+        return coord.y;
+    }
+
+    /**
+     * @return z-coordinate of Atom.
+     */
+    public double getZ() {
+        return coord.z;
+    }
+
+    /**
+     * Copies coordinates of the Atom into a supplied Point3d, avoiding the
+     * allocation of getCoord().
+     * @param target Point3d to be overwritten with the Atom coordinates.
+     */
+    public void copyCoordInto(Point3d target) {
+        target.set(coord);
+    }
     
     /**
      * @return Atomic symbol of Atom.
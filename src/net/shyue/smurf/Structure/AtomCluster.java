@@ -16,9 +16,9 @@ public class AtomCluster extends HashSet<Atom>{
         double z = 0;
         int num = this.size();
         for (Atom at : this) {
-            x += at.getCoord().x;
-            y += at.getCoord().y;
-            z += at.getCoord().z;
+            x += at.getX();
+            y += at.getY();
+            z += at.getZ();
         }
         return new Point3d(x / num, y / num, z / num);
 
@@ -32,9 +32,9 @@ public class AtomCluster extends HashSet<Atom>{
         double molWt = 0;
         for (Atom at : this) {
             double atWt = at.getAtWt();
-            x += at.getCoord().x * atWt;
-            y += at.getCoord().y * atWt;
-            z += at.getCoord().z * atWt;
+            x += at.getX() * atWt;
+            y += at.getY() * atWt;
+            z += at.getZ() * atWt;
             molWt += atWt;
         }
         return new Point3d(x / molWt, y / molWt, z / molWt);
@@ -2,8 +2,7 @@ package net.shyue.smurf.Structure;
 
 import net.shyue.smurf.Utils.SimpleCSVParser;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * A simple class to hold typical bond lengths for efficient access.  This is 
@@ -13,26 +12,40 @@ import java.util.List;
  */
 public final class BondLengthsData {
 
-    private List<Element> SPECIES1;
-    private List<Float> BONDORDER;
-    private List<Element> SPECIES2;
-    private List<Double> BONDLENGTHS;
+    /**
+     * Bond orders are tabulated in steps of 0.5 up to this maximum.
+     */
+    private static final float MAX_BOND_ORDER = 3;
+    private static final int MAX_ATNO = 92;
+    /**
+     * Dense lookup table indexed by [bond order index][Z1][Z2].  Missing pairs
+     * are NaN and rows of species without any tabulated bonds are null.
+     */
+    private final double[][][] BONDLENGTHS;
+    private final double[] MAXBONDLENGTHS;
     private static BondLengthsData instance = new BondLengthsData();
 
     private BondLengthsData() {
         
 
-        SPECIES1 = new ArrayList<Element>(100);
-        SPECIES2 = new ArrayList<Element>(100);
-        BONDORDER = new ArrayList<Float>(100);
-        BONDLENGTHS = new ArrayList<Double>(100);
+        BONDLENGTHS = new double[bondOrderIndex(MAX_BOND_ORDER) + 1][MAX_ATNO + 1][];
+        MAXBONDLENGTHS = new double[BONDLENGTHS.length];
         try {
             SimpleCSVParser parser = new SimpleCSVParser(BondLengthsData.class.getResourceAsStream("BondLengthsData.csv"));
             for (String [] row : parser.getData()){
-                SPECIES1.add(Element.valueOf(row[0]));
-                BONDORDER.add(Float.parseFloat(row[1]));
-                SPECIES2.add(Element.valueOf(row[2]));
-                BONDLENGTHS.add(Double.parseDouble(row[3]));
+                Element species1 = Element.valueOf(row[0]);
+                int order = bondOrderIndex(Float.parseFloat(row[1]));
+                Element species2 = Element.valueOf(row[2]);
+                double length = Double.parseDouble(row[3]);
+                if (order < 0) {
+                    throw new IllegalArgumentException("Unsupported bond order " + row[1] + "!");
+                }
+                // First entry for a pair wins, as in a sequential table scan.
+                if (Double.isNaN(lookup(species1, species2, order))) {
+                    put(species1, species2, order, length);
+                    put(species2, species1, order, length);
+                    MAXBONDLENGTHS[order] = Math.max(MAXBONDLENGTHS[order], length);
+                }
             }
 
         } catch (IOException ex) {
@@ -45,6 +58,33 @@ public final class BondLengthsData {
         }
     }
 
+    private void put(Element species1, Element species2, int order, double length) {
+        double[] row = BONDLENGTHS[order][species1.getAtNo()];
+        if (row == null) {
+            row = new double[MAX_ATNO + 1];
+            Arrays.fill(row, Double.NaN);
+            BONDLENGTHS[order][species1.getAtNo()] = row;
+        }
+        row[species2.getAtNo()] = length;
+    }
+
+    private double lookup(Element species1, Element species2, int order) {
+        double[] row = BONDLENGTHS[order][species1.getAtNo()];
+        return (row == null) ? Double.NaN : row[species2.getAtNo()];
+    }
+
+    /**
+     * Maps a bond order to its table index.
+     * @return Index, or -1 if bond order is not a supported multiple of 0.5.
+     */
+    private static int bondOrderIndex(float bondOrder) {
+        float twice = 2 * bondOrder;
+        if (twice < 0 || bondOrder > MAX_BOND_ORDER || twice != Math.round(twice)) {
+            return -1;
+        }
+        return Math.round(twice);
+    }
+
     /**
      * Returns typical bond length between 2 species.  Only single bonds are 
      * supported currently.
@@ -54,15 +94,40 @@ public final class BondLengthsData {
      * @return Bond length
      */
     public static double getBondLength(Element species1, Element species2, float bondOrder) {
-        for (int i = 0; i < instance.SPECIES1.size(); i++) {
-            if ((bondOrder == instance.BONDORDER.get(i)) &&
-           (((species1 == instance.SPECIES1.get(i)) && (species2 == instance.SPECIES2.get(i))) ||
-                    ((species1 == instance.SPECIES2.get(i)) &&
-                    (species2 == instance.SPECIES1.get(i))))) {
-                return instance.BONDLENGTHS.get(i);
-            }
+        double length = getBondLengthOrDefault(species1, species2, bondOrder, Double.NaN);
+        if (Double.isNaN(length)) {
+            throw new IllegalArgumentException("Bond lengths not found in table for " + species1 + species2 + Float.toString(bondOrder) + "!");
+        }
+        return length;
+    }
+
+    /**
+     * Returns typical bond length between 2 species, or a default value if
+     * the pair is not tabulated.  Unlike getBondLength, this never throws and
+     * is intended for tight loops over many atom pairs.
+     * @param species1 Species 1
+     * @param species2 Species 2
+     * @param bondOrder Bond order
+     * @param defaultLength Value returned if bond length is not tabulated.
+     * @return Bond length
+     */
+    public static double getBondLengthOrDefault(Element species1, Element species2, float bondOrder, double defaultLength) {
+        int order = bondOrderIndex(bondOrder);
+        if (order < 0) {
+            return defaultLength;
         }
+        double length = instance.lookup(species1, species2, order);
+        return Double.isNaN(length) ? defaultLength : length;
+    }
 
-        throw new IllegalArgumentException("Bond lengths not found in table for " + species1 + species2 + Float.toString(bondOrder) + "!");
+    /**
+     * Returns the longest tabulated bond length of a particular bond order.
+     * Useful as an upper bound for neighbour searches.
+     * @param bondOrder Bond order
+     * @return Longest bond length, or 0 if no bonds of that order are tabulated.
+     */
+    public static double getMaxBondLength(float bondOrder) {
+        int order = bondOrderIndex(bondOrder);
+        return (order < 0) ? 0 : instance.MAXBONDLENGTHS[order];
     }
 }
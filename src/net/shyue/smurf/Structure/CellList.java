@@ -0,0 +1,244 @@
+package net.shyue.smurf.Structure;
+
+import java.util.Arrays;
+
+/**
+ * A uniform grid (cell list) over the atoms of a Molecule for fast neighbour
+ * searches.  Atoms are bucketed once into cubic cells using a counting sort,
+ * so that finding all atoms within a cutoff of a point only requires looking
+ * at the surrounding cells instead of the whole molecule.  With a cell size
+ * comparable to the cutoff, finding the neighbours of every atom is linear in
+ * the number of atoms.
+ * @author shyue
+ */
+public final class CellList {
+
+    /**
+     * Upper bound on the number of cells per indexed atom.  Very sparse
+     * structures get larger cells rather than a huge, mostly empty grid.
+     */
+    private static final int MAX_CELLS_PER_ATOM = 8;
+    private final Molecule mol;
+    private final double cellSize;
+    private final double minX, minY, minZ;
+    private final int nx, ny, nz;
+    private final int[] cellStart;
+    private final int[] cellAtoms;
+
+    /**
+     * Creates a cell list containing all atoms of a Molecule.
+     * @param mol_in Molecule to be indexed.
+     * @param cellSize_in Edge length of the cells in Angstroms.  Ideally the
+     * largest cutoff that will be used in queries.
+     */
+    public CellList(Molecule mol_in, double cellSize_in) {
+        this(mol_in, allIndices(mol_in.size()), cellSize_in);
+    }
+
+    /**
+     * Creates a cell list containing only a subset of atoms of a Molecule.
+     * @param mol_in Molecule to be indexed.
+     * @param indices Indices of atoms to be indexed.
+     * @param cellSize_in Edge length of the cells in Angstroms.
+     */
+    public CellList(Molecule mol_in, int[] indices, double cellSize_in) {
+        if (!(cellSize_in > 0)) {
+            throw new IllegalArgumentException("Cell size must be positive!");
+        }
+        mol = mol_in;
+        double x0 = 0, y0 = 0, z0 = 0, x1 = 0, y1 = 0, z1 = 0;
+        if (indices.length > 0) {
+            x0 = x1 = mol.x(indices[0]);
+            y0 = y1 = mol.y(indices[0]);
+            z0 = z1 = mol.z(indices[0]);
+        }
+        for (int i : indices) {
+            x0 = Math.min(x0, mol.x(i));
+            y0 = Math.min(y0, mol.y(i));
+            z0 = Math.min(z0, mol.z(i));
+            x1 = Math.max(x1, mol.x(i));
+            y1 = Math.max(y1, mol.y(i));
+            z1 = Math.max(z1, mol.z(i));
+        }
+        minX = x0;
+        minY = y0;
+        minZ = z0;
+
+        double size = cellSize_in;
+        long maxCells = Math.max(1L, (long) MAX_CELLS_PER_ATOM * indices.length);
+        while (numCells(x1 - x0, size) * numCells(y1 - y0, size) * numCells(z1 - z0, size) > maxCells) {
+            size *= 2;
+        }
+        cellSize = size;
+        nx = (int) numCells(x1 - x0, size);
+        ny = (int) numCells(y1 - y0, size);
+        nz = (int) numCells(z1 - z0, size);
+
+        // Counting sort of atoms by cell.
+        int[] atomCell = new int[indices.length];
+        cellStart = new int[nx * ny * nz + 1];
+        for (int k = 0; k < indices.length; k++) {
+            int i = indices[k];
+            atomCell[k] = cellIndex(cellCoord(mol.x(i), minX, nx),
+                    cellCoord(mol.y(i), minY, ny), cellCoord(mol.z(i), minZ, nz));
+            cellStart[atomCell[k] + 1]++;
+        }
+        for (int c = 0; c < nx * ny * nz; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        cellAtoms = new int[indices.length];
+        int[] fill = Arrays.copyOf(cellStart, cellStart.length - 1);
+        for (int k = 0; k < indices.length; k++) {
+            cellAtoms[fill[atomCell[k]]++] = indices[k];
+        }
+    }
+
+    /**
+     * Returns all indexed atoms within cutoff of the atom at index, excluding
+     * the atom itself.
+     * @param index Index of atom in the Molecule.
+     * @param cutoff Cutoff distance in Angstroms.
+     * @return Indices of neighbouring atoms in ascending order.
+     */
+    public int[] getNeighbors(int index, double cutoff) {
+        return getNeighbors(mol.x(index), mol.y(index), mol.z(index), cutoff, index);
+    }
+
+    /**
+     * Returns all indexed atoms within cutoff of a point.
+     * @param x x-coordinate of point.
+     * @param y y-coordinate of point.
+     * @param z z-coordinate of point.
+     * @param cutoff Cutoff distance in Angstroms.
+     * @return Indices of atoms in ascending order.
+     */
+    public int[] getNeighbors(double x, double y, double z, double cutoff) {
+        return getNeighbors(x, y, z, cutoff, -1);
+    }
+
+    private int[] getNeighbors(double x, double y, double z, double cutoff, int exclude) {
+        int k = (int) Math.ceil(cutoff / cellSize);
+        int cx = cellCoord(x, minX, nx);
+        int cy = cellCoord(y, minY, ny);
+        int cz = cellCoord(z, minZ, nz);
+        double cutSq = cutoff * cutoff;
+        int[] found = new int[16];
+        int count = 0;
+        for (int ix = Math.max(0, cx - k), xe = Math.min(nx - 1, cx + k); ix <= xe; ix++) {
+            for (int iy = Math.max(0, cy - k), ye = Math.min(ny - 1, cy + k); iy <= ye; iy++) {
+                for (int iz = Math.max(0, cz - k), ze = Math.min(nz - 1, cz + k); iz <= ze; iz++) {
+                    int c = cellIndex(ix, iy, iz);
+                    for (int p = cellStart[c]; p < cellStart[c + 1]; p++) {
+                        int j = cellAtoms[p];
+                        if (j != exclude) {
+                            double dx = mol.x(j) - x;
+                            double dy = mol.y(j) - y;
+                            double dz = mol.z(j) - z;
+                            if (dx * dx + dy * dy + dz * dz <= cutSq) {
+                                if (count == found.length) {
+                                    found = Arrays.copyOf(found, 2 * count);
+                                }
+                                found[count++] = j;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        Arrays.sort(found, 0, count);
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * Tests whether any indexed atom lies strictly closer than cutoff to a
+     * point.  Cells are searched in shells of increasing distance from the
+     * point, so that the search usually stops within the first few cells
+     * when such an atom exists.
+     * @param x x-coordinate of point.
+     * @param y y-coordinate of point.
+     * @param z z-coordinate of point.
+     * @param cutoff Cutoff distance in Angstroms.
+     * @return True if an atom is found within cutoff.
+     */
+    public boolean containsWithin(double x, double y, double z, double cutoff) {
+        if (cellAtoms.length == 0) {
+            return false;
+        }
+        int k = (int) Math.ceil(cutoff / cellSize);
+        int cx = cellCoord(x, minX, nx);
+        int cy = cellCoord(y, minY, ny);
+        int cz = cellCoord(z, minZ, nz);
+        double cutSq = cutoff * cutoff;
+        int maxShell = Math.max(Math.max(cx, nx - 1 - cx), Math.max(Math.max(cy, ny - 1 - cy), Math.max(cz, nz - 1 - cz)));
+        maxShell = Math.min(k, maxShell);
+        for (int s = 0; s <= maxShell; s++) {
+            for (int ix = Math.max(0, cx - s), xe = Math.min(nx - 1, cx + s); ix <= xe; ix++) {
+                boolean xFace = Math.abs(ix - cx) == s;
+                for (int iy = Math.max(0, cy - s), ye = Math.min(ny - 1, cy + s); iy <= ye; iy++) {
+                    if (xFace || Math.abs(iy - cy) == s) {
+                        // Whole column lies on the shell.
+                        for (int iz = Math.max(0, cz - s), ze = Math.min(nz - 1, cz + s); iz <= ze; iz++) {
+                            if (cellContains(cellIndex(ix, iy, iz), x, y, z, cutSq)) {
+                                return true;
+                            }
+                        }
+                    } else {
+                        // Only the two ends of the column lie on the shell.
+                        if (cz - s >= 0 && cellContains(cellIndex(ix, iy, cz - s), x, y, z, cutSq)) {
+                            return true;
+                        }
+                        if (cz + s < nz && cellContains(cellIndex(ix, iy, cz + s), x, y, z, cutSq)) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean cellContains(int c, double x, double y, double z, double cutSq) {
+        for (int p = cellStart[c]; p < cellStart[c + 1]; p++) {
+            int j = cellAtoms[p];
+            double dx = mol.x(j) - x;
+            double dy = mol.y(j) - y;
+            double dz = mol.z(j) - z;
+            if (dx * dx + dy * dy + dz * dz < cutSq) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Edge length of cells actually used, which may be larger than
+     * requested for very sparse structures.
+     */
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    private int cellIndex(int ix, int iy, int iz) {
+        return (ix * ny + iy) * nz + iz;
+    }
+
+    private int cellCoord(double value, double min, int n) {
+        int c = (int) Math.floor((value - min) / cellSize);
+        if (c < 0) {
+            return 0;
+        }
+        return (c >= n) ? n - 1 : c;
+    }
+
+    private static long numCells(double extent, double size) {
+        return (long) Math.floor(extent / size) + 1;
+    }
+
+    private static int[] allIndices(int n) {
+        int[] indices = new int[n];
+        for (int i = 0; i < n; i++) {
+            indices[i] = i;
+        }
+        return indices;
+    }
+}
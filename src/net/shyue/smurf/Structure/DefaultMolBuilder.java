@@ -3,8 +3,6 @@ package net.shyue.smurf.Structure;
 import java.util.ArrayList;
 import java.util.List;
 import javax.vecmath.Point3d;
-import javax.vecmath.Vector3d;
-import net.shyue.smurf.Analyzers.SymmetryOperation;
 
 /**
  * A Builder class to make a Molecule object.  Other classes which can make 
@@ -18,7 +16,7 @@ public class DefaultMolBuilder implements MolBuilder{
     /**
      *
      */
-    protected ArrayList<Atom> sites;
+    protected List<Atom> sites;
     /**
      *
      */
@@ -53,6 +51,21 @@ public class DefaultMolBuilder implements MolBuilder{
         }
     }
 
+    /**
+     * Constructor for subclasses which provide their own storage for sites.
+     * The list is used directly and NOT copied.
+     * @param name_in
+     * @param charge_in
+     * @param spinMult_in
+     * @param sites_in
+     */
+    protected DefaultMolBuilder(String name_in, int charge_in, int spinMult_in, List<Atom> sites_in) {
+        name = name_in;
+        sites = sites_in;
+        charge = charge_in;
+        spinMult = spinMult_in;
+    }
+
     /**
      * Get current name of molecule
      * @return Name of molecule
@@ -177,48 +190,34 @@ public class DefaultMolBuilder implements MolBuilder{
     public static Point3d ZMat2Cart(List<Atom> currentAtomSet, int NN1_index, double bondlength_in,
             int NN2_index, double angle_in, int NN3_index, double dih_in) {
 
-        if ((NN1_index > currentAtomSet.size()) || (NN1_index > currentAtomSet.size()) || (NN1_index > currentAtomSet.size())) {
+        int n = currentAtomSet.size();
+        if (!MolVecMath.isValidReference(n, NN1_index, NN2_index, NN3_index)) {
             String error_msg = "Input Z-matrix refers to atoms not yet in molecule!";
             throw new IllegalArgumentException(error_msg);
         }
-        Point3d NN1, NN2, NN3, coord;
-        Vector3d axis = new Vector3d();
-        double adj;
-        switch (currentAtomSet.size()) {
+        double[] coord = new double[3];
+        Atom NN1, NN2, NN3;
+        switch (n) {
             case 0:
-                coord = new Point3d(0, 0, 0);
                 break;
             case 1:
-                coord = new Point3d(0, 0, bondlength_in);
+                coord[2] = bondlength_in;
                 break;
             case 2:
-                NN1 = currentAtomSet.get(NN1_index).getCoord();
-                NN2 = currentAtomSet.get(NN2_index).getCoord();
-                axis = new Vector3d(0, 1, 0);
-                coord = SymmetryOperation.Rotation(NN1, axis, angle_in).transformPoint(NN2);
-                coord = MolVecMath.scale(coord, NN1, bondlength_in);
+                NN1 = currentAtomSet.get(NN1_index);
+                NN2 = currentAtomSet.get(NN2_index);
+                MolVecMath.placeInXZPlane(NN2.getX(), NN2.getY(), NN2.getZ(),
+                        NN1.getX(), NN1.getY(), NN1.getZ(), bondlength_in, angle_in, coord, 0);
                 break;
             default:
-                NN1 = currentAtomSet.get(NN1_index).getCoord();
-                NN2 = currentAtomSet.get(NN2_index).getCoord();
-                NN3 = currentAtomSet.get(NN3_index).getCoord();
-                Vector3d vec1 = new Vector3d(NN3);
-                vec1.sub(NN2);
-                Vector3d vec2 = new Vector3d(NN1);
-                vec2.sub(NN2);
-                axis.cross(vec1, vec2);
-                coord = SymmetryOperation.Rotation(NN1, axis, angle_in).transformPoint(NN2);
-                vec1.sub(coord, NN1);
-                vec2.sub(NN1, NN2);
-                Vector3d vec3 = new Vector3d();
-                vec3.cross(vec1, vec2);
-                adj = vec3.angle(axis) * 180 / Math.PI;
-                axis.sub(NN1,NN2);
-                coord = SymmetryOperation.Rotation(NN1, axis, dih_in - adj).transformPoint(coord);
-                coord = MolVecMath.scale(coord, NN1, bondlength_in);
+                NN1 = currentAtomSet.get(NN1_index);
+                NN2 = currentAtomSet.get(NN2_index);
+                NN3 = currentAtomSet.get(NN3_index);
+                MolVecMath.nerf(NN3.getX(), NN3.getY(), NN3.getZ(), NN2.getX(), NN2.getY(), NN2.getZ(),
+                        NN1.getX(), NN1.getY(), NN1.getZ(), bondlength_in, angle_in, dih_in, coord, 0);
                 break;
         }
-        return coord;
+        return new Point3d(coord[0], coord[1], coord[2]);
     }
 
     @Override
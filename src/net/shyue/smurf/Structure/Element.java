@@ -98,6 +98,25 @@ public enum Element {
     private final int atNo;
     private final String name;
     private final double atWt;
+    /**
+     * Elements indexed by atomic number.
+     */
+    private static final Element[] BY_ATNO;
+    /**
+     * Perfect hash table of elements indexed by symbolHash of their symbols.
+     */
+    private static final Element[] BY_SYMBOL;
+
+    static {
+        Element[] values = values();
+        BY_ATNO = new Element[values[values.length - 1].atNo + 1];
+        BY_SYMBOL = new Element[26 * 27];
+        for (Element el : values) {
+            BY_ATNO[el.atNo] = el;
+            String sym = el.name();
+            BY_SYMBOL[symbolHash(sym.charAt(0), (sym.length() > 1) ? sym.charAt(1) : '\0')] = el;
+        }
+    }
 
     Element(int _atNo, String _name, double _atWt) {
         atNo = _atNo;
@@ -118,25 +137,118 @@ public enum Element {
     }
 
     public static boolean isValidSymbol(String sym){
-        for (Element el : Element.values())
-        {
-            if (el.toString().equals(sym))
-            {
-                return true;
-            }
+        int n = sym.length();
+        if (n < 1 || n > 2) {
+            return false;
         }
-        return false;
+        Element el = lookup(sym.charAt(0), (n > 1) ? sym.charAt(1) : '\0');
+        return (el != null) && el.name().equals(sym);
     }
 
     public static Element getSpecies(int atomicNo){
-        for (Element el : Element.values())
-        {
-            if (el.getAtNo()==atomicNo)
-            {
-                return el;
-            }
+        if (atomicNo > 0 && atomicNo < BY_ATNO.length && BY_ATNO[atomicNo] != null) {
+            return BY_ATNO[atomicNo];
         }
         throw new IllegalArgumentException("Element for atomic number not found!");
     }
 
-}
\ No newline at end of file
+    /**
+     * Parses an element symbol from a slice of characters without creating
+     * any intermediate Strings.  Parsing is case insensitive, e.g. "CL", "cl"
+     * and "Cl" all give chlorine.
+     * @param seq Characters containing the symbol.
+     * @param start Start index of symbol (inclusive).
+     * @param end End index of symbol (exclusive).
+     * @return Element
+     */
+    public static Element parseSymbol(CharSequence seq, int start, int end) {
+        Element el = null;
+        if (end - start == 1) {
+            el = lookup(seq.charAt(start), '\0');
+        } else if (end - start == 2) {
+            el = lookup(seq.charAt(start), seq.charAt(start + 1));
+        }
+        if (el == null) {
+            throw new IllegalArgumentException("Invalid element symbol " + seq.subSequence(start, end) + "!");
+        }
+        return el;
+    }
+
+    /**
+     * Parses an element symbol from a slice of a character array.
+     * @see #parseSymbol(java.lang.CharSequence, int, int)
+     * @param buf Characters containing the symbol.
+     * @param start Start index of symbol (inclusive).
+     * @param end End index of symbol (exclusive).
+     * @return Element
+     */
+    public static Element parseSymbol(char[] buf, int start, int end) {
+        return parseSymbol(java.nio.CharBuffer.wrap(buf), start, end);
+    }
+
+    /**
+     * Parses the species from an atom label such as "C", "C12" or "Cl_3", i.e.
+     * from the leading run of letters in a slice of characters.
+     * @param seq Characters containing the label.
+     * @param start Start index of label (inclusive).
+     * @param end End index of label (exclusive).
+     * @return Element
+     */
+    public static Element parseLabel(CharSequence seq, int start, int end) {
+        int symEnd = start;
+        while (symEnd < end && Character.isLetter(seq.charAt(symEnd))) {
+            symEnd++;
+        }
+        return parseSymbol(seq, start, symEnd);
+    }
+
+    /**
+     * Parses the species from a slice of characters containing either an
+     * atomic number, e.g. "6", or an atom label, e.g. "C" or "C12", as found
+     * in coordinate files.
+     * @param seq Characters containing the atomic number or label.
+     * @param start Start index (inclusive).
+     * @param end End index (exclusive).
+     * @return Element
+     */
+    public static Element parseSpecies(CharSequence seq, int start, int end) {
+        if (start < end && Character.isDigit(seq.charAt(start))) {
+            int atomicNo = 0;
+            for (int i = start; i < end; i++) {
+                int digit = Character.digit(seq.charAt(i), 10);
+                if (digit < 0 || atomicNo > BY_ATNO.length) {
+                    throw new IllegalArgumentException("Invalid atomic number " + seq.subSequence(start, end) + "!");
+                }
+                atomicNo = atomicNo * 10 + digit;
+            }
+            return getSpecies(atomicNo);
+        }
+        return parseLabel(seq, start, end);
+    }
+
+    private static Element lookup(char c0, char c1) {
+        int hash = symbolHash(c0, c1);
+        return (hash < 0) ? null : BY_SYMBOL[hash];
+    }
+
+    /**
+     * Case insensitive perfect hash of one or two letter symbols.  Second
+     * character is 0 for one letter symbols.
+     * @return Hash, or -1 if characters are not valid in a symbol.
+     */
+    private static int symbolHash(char c0, char c1) {
+        int first = Character.toUpperCase(c0) - 'A';
+        if (first < 0 || first >= 26) {
+            return -1;
+        }
+        if (c1 == '\0') {
+            return first * 27;
+        }
+        int second = Character.toLowerCase(c1) - 'a';
+        if (second < 0 || second >= 26) {
+            return -1;
+        }
+        return first * 27 + second + 1;
+    }
+
+}
@@ -0,0 +1,231 @@
+package net.shyue.smurf.Structure;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A set of frames of the same molecule, e.g. the steps of a geometry
+ * optimization or a set of conformers.  Name, charge, spin multiplicity and
+ * species are stored only once, and the coordinates of all frames are held
+ * in a single packed array, with atom i of frame f at positions
+ * 3(f*n+i), 3(f*n+i)+1 and 3(f*n+i)+2 for n atoms.
+ * 
+ * Individual frames are returned as Molecules sharing the species of the
+ * Ensemble, so that only their coordinates are copied.
+ * 
+ * @author shyue
+ */
+public final class Ensemble implements Iterable<Molecule> {
+
+    private final String name;
+    private final int charge;
+    private final int spinMult;
+    private final Element[] species;
+    private double[] frames;
+    private int numFrames;
+
+    /**
+     * Creates an Ensemble with a single frame.  Name, charge, spin
+     * multiplicity and species of all frames are taken from this Molecule.
+     * @param firstFrame First frame.
+     */
+    public Ensemble(Molecule firstFrame) {
+        name = firstFrame.getName();
+        charge = firstFrame.getCharge();
+        spinMult = firstFrame.getSpinMult();
+        species = new Element[firstFrame.size()];
+        for (int i = 0; i < species.length; i++) {
+            species[i] = firstFrame.getAtomSpecies(i);
+        }
+        frames = new double[3 * species.length];
+        numFrames = 0;
+        addFrame(firstFrame);
+    }
+
+    /**
+     * Adds a frame from a Molecule, which must have the same species in the
+     * same order as the Ensemble.
+     * @param frame Molecule to add.
+     */
+    public void addFrame(Molecule frame) {
+        if (frame.size() != species.length) {
+            throw new IllegalArgumentException("Frame does not have the same number of atoms as Ensemble!");
+        }
+        for (int i = 0; i < species.length; i++) {
+            if (frame.getAtomSpecies(i) != species[i]) {
+                throw new IllegalArgumentException("Frame does not have the same species as Ensemble!");
+            }
+        }
+        frame.copyCoordsInto(ensureCapacity(), 3 * species.length * numFrames);
+        numFrames++;
+    }
+
+    /**
+     * Adds a frame from packed coordinates.
+     * @param coords Packed coordinates, x, y and z of each atom in turn.
+     */
+    public void addFrame(double[] coords) {
+        if (coords.length != 3 * species.length) {
+            throw new IllegalArgumentException("Coordinate array does not match number of atoms!");
+        }
+        System.arraycopy(coords, 0, ensureCapacity(), 3 * species.length * numFrames, coords.length);
+        numFrames++;
+    }
+
+    /**
+     * Returns a frame as a Molecule.  The Molecule shares the species of the
+     * Ensemble and holds a copy of the frame coordinates.
+     * @param index Frame index.
+     * @return Molecule for frame.
+     */
+    public Molecule getFrame(int index) {
+        checkFrame(index);
+        int stride = 3 * species.length;
+        return new Molecule(name, charge, spinMult, species,
+                Arrays.copyOfRange(frames, index * stride, (index + 1) * stride));
+    }
+
+    /**
+     * Copies the packed coordinates of a frame into out.
+     * @param index Frame index.
+     * @param out Array to receive packed coordinates.
+     */
+    public void copyFrameInto(int index, double[] out) {
+        checkFrame(index);
+        int stride = 3 * species.length;
+        System.arraycopy(frames, index * stride, out, 0, stride);
+    }
+
+    /**
+     * Returns x-coordinate of an atom in a frame.
+     * @param frame Frame index.
+     * @param atom Atom index.
+     * @return x-coordinate.
+     */
+    public double x(int frame, int atom) {
+        checkAtom(frame, atom);
+        return frames[3 * (frame * species.length + atom)];
+    }
+
+    /**
+     * Returns y-coordinate of an atom in a frame.
+     * @param frame Frame index.
+     * @param atom Atom index.
+     * @return y-coordinate.
+     */
+    public double y(int frame, int atom) {
+        checkAtom(frame, atom);
+        return frames[3 * (frame * species.length + atom) + 1];
+    }
+
+    /**
+     * Returns z-coordinate of an atom in a frame.
+     * @param frame Frame index.
+     * @param atom Atom index.
+     * @return z-coordinate.
+     */
+    public double z(int frame, int atom) {
+        checkAtom(frame, atom);
+        return frames[3 * (frame * species.length + atom) + 2];
+    }
+
+    /**
+     * Returns species of atom at position given by index.
+     * @param index Atom index.
+     * @return Species of atom.
+     */
+    public Element getAtomSpecies(int index) {
+        return species[index];
+    }
+
+    /**
+     * @return Name of Ensemble.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Charge of all frames.
+     */
+    public int getCharge() {
+        return charge;
+    }
+
+    /**
+     * @return Spin multiplicity of all frames.
+     */
+    public int getSpinMult() {
+        return spinMult;
+    }
+
+    /**
+     * @return Number of atoms in each frame.
+     */
+    public int numAtoms() {
+        return species.length;
+    }
+
+    /**
+     * @return Number of frames.
+     */
+    public int numFrames() {
+        return numFrames;
+    }
+
+    /**
+     * Returns iterator going through all frames as Molecules.
+     * @return Iterator
+     */
+    @Override
+    public Iterator<Molecule> iterator() {
+
+        return new Iterator<Molecule>() {
+
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < numFrames;
+            }
+
+            @Override
+            public Molecule next() {
+                if (next >= numFrames) {
+                    throw new NoSuchElementException();
+                }
+                return getFrame(next++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("Frames cannot be removed!");
+            }
+        };
+    }
+
+    /**
+     * Grows the frame array if needed so that one more frame can be added.
+     */
+    private double[] ensureCapacity() {
+        int needed = 3 * species.length * (numFrames + 1);
+        if (needed > frames.length) {
+            frames = Arrays.copyOf(frames, Math.max(needed, 2 * frames.length));
+        }
+        return frames;
+    }
+
+    private void checkFrame(int index) {
+        if (index < 0 || index >= numFrames) {
+            throw new IndexOutOfBoundsException("Frame: " + index + ", Frames: " + numFrames);
+        }
+    }
+
+    private void checkAtom(int frame, int atom) {
+        checkFrame(frame);
+        if (atom < 0 || atom >= species.length) {
+            throw new IndexOutOfBoundsException("Atom: " + atom + ", Size: " + species.length);
+        }
+    }
+}
@@ -1,20 +1,39 @@
 package net.shyue.smurf.Structure;
 
 import net.shyue.smurf.Analyzers.NetworkRepresentation;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import javax.vecmath.Point3d;
 import javax.vecmath.Vector3d;
 import net.shyue.smurf.Analyzers.SymmetryOperation;
 import net.shyue.smurf.Structure.Templates.SUBSTITUENT;
 
 /**
+ * Editor for making substitutions and rotations on an existing Molecule.
  * 
+ * Edits are kept as an overlay on the starting Molecule, i.e. only replaced
+ * sites and appended atoms are stored.  Undoing all changes simply drops the
+ * overlay and branching only copies the overlay, so both cost time
+ * proportional to the size of the edits rather than the size of the
+ * Molecule.
  * @author shyue
  */
 public class MolEditor extends DefaultMolBuilder{
 
+    /**
+     * Initial search radius for nearest neighbours in Angstroms.  Also used as
+     * the cell size of the neighbour search grid.
+     */
+    private static final double NN_SEARCH_RADIUS = 3.0;
     private final Molecule startingMol;
+    private final Map<Integer, Atom> replacedSites;
+    private final List<Atom> appendedSites;
+    private CellList startingCells;
     public enum SUBSTITUTEE {H, F, Cl};
 
 
@@ -24,25 +43,42 @@ public class MolEditor extends DefaultMolBuilder{
      * @param mol_in Input Molecule
      */
     public MolEditor(Molecule mol_in) {
-        super(mol_in);
+        this(mol_in, mol_in.getName(), new HashMap<Integer, Atom>(), new ArrayList<Atom>());
+    }
+
+    private MolEditor(Molecule mol_in, String name_in, Map<Integer, Atom> replaced_in, List<Atom> appended_in) {
+        super(name_in, mol_in.getCharge(), mol_in.getSpinMult(), null);
         startingMol = mol_in;
-        
+        replacedSites = replaced_in;
+        appendedSites = appended_in;
+        sites = new EditedSites();
     }
 
     /**
-     * Replaces Atom at atomToSub with a functional group.
-     * @param atomToSub
-     * @param substituent 
+     * Returns a new editor with the same starting Molecule and all changes
+     * made so far, which can then be edited independently of this editor.
+     * @return Branched editor.
      */
-    protected void addComplexGroup(Atom atomToSub, SUBSTITUENT substituent) {
-        Atom[] NNList = findNNNonTerminal(atomToSub);
-        Atom NN = NNList[0];
-        NNList = findNN(NN);
-        Atom NN2 = (NNList[0] == atomToSub) ? NNList[1] : NNList[0];
+    public MolEditor branch() {
+        MolEditor copy = new MolEditor(startingMol, name, new HashMap<Integer, Atom>(replacedSites),
+                new ArrayList<Atom>(appendedSites));
+        copy.charge = charge;
+        copy.spinMult = spinMult;
+        copy.startingCells = startingCells;
+        return copy;
+    }
 
-        int at_index = sites.indexOf(atomToSub);
-        int NN_index = sites.indexOf(NN);
-        int NN2_index = sites.indexOf(NN2);
+    /**
+     * Replaces Atom at at_index with a functional group.
+     * @param at_index
+     * @param substituent 
+     */
+    protected void addComplexGroup(int at_index, SUBSTITUENT substituent) {
+        Atom atomToSub = sites.get(at_index);
+        int NN_index = findNN(at_index, true)[0];
+        Atom NN = sites.get(NN_index);
+        int[] NNList = findNN(NN_index, false);
+        int NN2_index = (NNList[0] == at_index) ? NNList[1] : NNList[0];
 
         double bondLength, angle, dih;
         int bondOrder;
@@ -122,10 +158,9 @@ public class MolEditor extends DefaultMolBuilder{
         }
 
         if (substituent.isComplex()) {
-            addComplexGroup(atomToSub, substituent);
+            addComplexGroup(atomToSubIndex, substituent);
         } else {
-            Atom[] NNList = findNNNonTerminal(atomToSub);
-            Atom NN = NNList[0];
+            Atom NN = sites.get(findNN(atomToSubIndex, true)[0]);
             Atom tmpsite = atomToSub;
             double bondlength = BondLengthsData.getBondLength(Element.valueOf(substituent.toString()), NN.getSpecies(), 1); // set to experimental C-C bond length
             Point3d newcoord = MolVecMath.scale(tmpsite.getCoord(), NN.getCoord(), bondlength);
@@ -137,16 +172,71 @@ public class MolEditor extends DefaultMolBuilder{
     }
 
     /**
-     * Returns atomToSub of 3 nearest neighbour atoms, the Atom itself excluded.
-     * @returns Integer array containing nearest neighbours in order of increasing distance.
+     * Returns the 3 nearest neighbours of the atom at index, the atom itself
+     * excluded.  Unmodified atoms of the starting Molecule are searched using
+     * a cell list with increasing radius, so only edited sites need to be
+     * checked exhaustively.
+     * @param index Index of atom.
+     * @param nonTerminal If true, only heavy (non hydrogen or fluorine) atoms
+     * are considered.
+     * @returns Indices of nearest neighbours in order of increasing distance,
+     * with ties going to the lower index.  -1 if there are fewer than 3.
      */
-    private Atom[] findNN(Atom at) {
-        Atom[] NN_index = new Atom[3];
+    private int[] findNN(int index, boolean nonTerminal) {
+        Atom at = sites.get(index);
+        double x = at.getX();
+        double y = at.getY();
+        double z = at.getZ();
+        int n = startingMol.size();
+
+        int[] candidates = new int[0];
+        if (n > 0) {
+            if (startingCells == null) {
+                startingCells = new CellList(startingMol, NN_SEARCH_RADIUS);
+            }
+            double radius = NN_SEARCH_RADIUS;
+            int found;
+            do {
+                candidates = startingCells.getNeighbors(x, y, z, radius);
+                found = 0;
+                for (int i : candidates) {
+                    if (i != index && !replacedSites.containsKey(i)
+                            && (!nonTerminal || !isTerminal(startingMol.getAtomSpecies(i)))) {
+                        found++;
+                    }
+                }
+                radius *= 2;
+            } while (found < 3 && candidates.length < n);
+        }
+
+        // Candidate indices in ascending order, with edited sites taking the
+        // place of the starting atoms.
+        int[] indices = new int[candidates.length + replacedSites.size() + appendedSites.size()];
+        int count = 0;
+        for (int i : candidates) {
+            if (!replacedSites.containsKey(i)) {
+                indices[count++] = i;
+            }
+        }
+        for (int i : replacedSites.keySet()) {
+            indices[count++] = i;
+        }
+        for (int i = 0; i < appendedSites.size(); i++) {
+            indices[count++] = n + i;
+        }
+        Arrays.sort(indices, 0, count);
+
+        int[] NN_index = {-1, -1, -1};
         double dist;
         double Rmin1 = 2e9, Rmin2 = 2e9, Rmin3 = 2e9;
-        for (Atom i : sites) {
-            if (i != at) {
-                dist = at.getCoord().distance(i.getCoord());
+        for (int k = 0; k < count; k++) {
+            int i = indices[k];
+            Atom site = sites.get(i);
+            if (i != index && (!nonTerminal || !isTerminal(site.getSpecies()))) {
+                double dx = site.getX() - x;
+                double dy = site.getY() - y;
+                double dz = site.getZ() - z;
+                dist = Math.sqrt(dx * dx + dy * dy + dz * dz);
                 if (dist < Rmin1) {
                     Rmin3 = Rmin2;
                     Rmin2 = Rmin1;
@@ -168,61 +258,44 @@ public class MolEditor extends DefaultMolBuilder{
         return NN_index;
     }
 
+    private static boolean isTerminal(Element species) {
+        return (species == Element.H) || (species == Element.F);
+    }
+
     /**
-     * Returns atomToSub of nearest neighbour heavy Atom (non hydrogen).
+     * Rotates the molecules about the bond connecting atoms atom1 and atom2 by angle.
+     * @param atom1 First Atom.
+     * @param atom2 Second Atom.
+     * @param angle Angle to rotate by in integral number of degrees.
      */
-    private Atom[] findNNNonTerminal(Atom at) {
-        Atom[] NN_index = new Atom[3];
-        double dist;
-        double Rmin1 = 2e9, Rmin2 = 2e9, Rmin3 = 2e9;
-        for (int i = 0; i < sites.size(); i++) {
-            if (!((sites.get(i).getSpecies()==Element.H)||(sites.get(i).getSpecies() == Element.F))) {
-                dist = at.getCoord().distance(sites.get(i).getCoord());
-                if (sites.get(i) != at) {
-                    if (dist < Rmin1) {
-                        Rmin3 = Rmin2;
-                        Rmin2 = Rmin1;
-                        Rmin1 = dist;
-                        NN_index[2] = NN_index[1];
-                        NN_index[1] = NN_index[0];
-                        NN_index[0] = sites.get(i);
-                    } else if (dist < Rmin2) {
-                        Rmin3 = Rmin2;
-                        Rmin2 = dist;
-                        NN_index[2] = NN_index[1];
-                        NN_index[1] = sites.get(i);
-                    } else if (dist < Rmin3) {
-                        Rmin3 = dist;
-                        NN_index[2] = sites.get(i);
-                    }
-                }
-            }
-        }
-        return NN_index;
+    public void rotate(Atom atom1, Atom atom2, double angle) {
+        rotate(startingMol.indexOf(atom1), startingMol.indexOf(atom2), angle);
     }
 
     /**
-     * Rotates the molecules about the bond connecting atoms atom1 and atom2 by angle.
+     * Rotates the molecules about the bond connecting atoms atom1 and atom2 by
+     * angle.  The side of atom2 is rotated.
      * @param atom1 Index of first Atom.
      * @param atom2 Index of second Atom.
      * @param angle Angle to rotate by in integral number of degrees.
      */
-    public void rotate(Atom atom1, Atom atom2, double angle) {
-        double threshold = 1.1 * BondLengthsData.getBondLength(atom1.getSpecies(),
-                atom2.getSpecies(), 1);
-        if (atom1.getCoord().distance(atom2.getCoord()) > threshold) {
+    public void rotate(int atom1, int atom2, double angle) {
+        Point3d coord1 = startingMol.getAtomCoord(atom1);
+        Point3d coord2 = startingMol.getAtomCoord(atom2);
+        double threshold = 1.1 * BondLengthsData.getBondLength(startingMol.getAtomSpecies(atom1),
+                startingMol.getAtomSpecies(atom2), 1);
+        if (coord1.distance(coord2) > threshold) {
             System.out.println("Atoms are too far apart.  Are you sure they are" +
                     "bonded atoms?");
         } else {
             NetworkRepresentation networkRep = new NetworkRepresentation(startingMol);
-            List<Atom> connectedatoms = networkRep.getNetwork(atom1, atom2);
+            BitSet side = networkRep.getSide(atom1, atom2);
             Vector3d axis = new Vector3d();
-            axis.sub(atom2.getCoord(), atom1.getCoord());
-            SymmetryOperation RotM = SymmetryOperation.Rotation(atom1.getCoord(), axis, angle);
-            for (Atom at : sites) {
-                if (connectedatoms.contains(at)) {
-                    sites.set(sites.indexOf(at), new Atom(at.getSpecies(), RotM.transformPoint(at.getCoord())));
-                }
+            axis.sub(coord2, coord1);
+            SymmetryOperation RotM = SymmetryOperation.Rotation(coord1, axis, angle);
+            for (int i = side.nextSetBit(0); i >= 0; i = side.nextSetBit(i + 1)) {
+                Atom at = sites.get(i);
+                sites.set(i, new Atom(at.getSpecies(), RotM.transformPoint(at.getCoord())));
             }
         }
         name = name + "_rot" + Double.toString(angle);
@@ -233,9 +306,96 @@ public class MolEditor extends DefaultMolBuilder{
      */
     public void undoAllChanges() {
         name = startingMol.getName();
-        sites = new ArrayList<Atom>(startingMol.size());
-        for (Atom at : startingMol) {
-            sites.add(at);
+        replacedSites.clear();
+        appendedSites.clear();
+    }
+
+    /**
+     * Builds the edited Molecule.  Species and coordinates of the starting
+     * Molecule are block copied and only edited sites are written
+     * individually.
+     * @return Edited Molecule
+     */
+    @Override
+    public Molecule build() throws BuilderException {
+        int n = startingMol.size();
+        int total = n + appendedSites.size();
+        Element[] newSpecies = new Element[total];
+        double[] newCoords = new double[3 * total];
+        startingMol.copyPackedInto(newSpecies, newCoords);
+
+        // Starting electron count with the charge removed, corrected for
+        // edited sites.
+        int electrons = startingMol.getTotalElectrons() + startingMol.getCharge();
+        for (Map.Entry<Integer, Atom> entry : replacedSites.entrySet()) {
+            int i = entry.getKey();
+            electrons -= newSpecies[i].getAtNo();
+            putSite(newSpecies, newCoords, i, entry.getValue());
+            electrons += newSpecies[i].getAtNo();
+        }
+        for (int i = 0; i < appendedSites.size(); i++) {
+            putSite(newSpecies, newCoords, n + i, appendedSites.get(i));
+            electrons += newSpecies[n + i].getAtNo();
+        }
+
+        electrons = electrons - charge;
+        if ((spinMult - electrons) % 2 != 0) {
+            spinMult = electrons % 2 + 1;
+        }
+        return new Molecule(name, charge, spinMult, newSpecies, newCoords);
+    }
+
+    private static void putSite(Element[] speciesOut, double[] coordsOut, int i, Atom at) {
+        speciesOut[i] = at.getSpecies();
+        coordsOut[3 * i] = at.getX();
+        coordsOut[3 * i + 1] = at.getY();
+        coordsOut[3 * i + 2] = at.getZ();
+    }
+
+    /**
+     * List view of the current sites, i.e. the starting Molecule with
+     * replaced sites and appended atoms overlaid.  Setting a site records a
+     * replacement and adding a site appends, leaving the starting Molecule
+     * untouched.
+     */
+    private final class EditedSites extends AbstractList<Atom> {
+
+        @Override
+        public Atom get(int index) {
+            int n = startingMol.size();
+            if (index < 0 || index >= n + appendedSites.size()) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            }
+            if (index >= n) {
+                return appendedSites.get(index - n);
+            }
+            Atom at = replacedSites.get(index);
+            return (at != null) ? at : startingMol.get(index);
+        }
+
+        @Override
+        public Atom set(int index, Atom at) {
+            Atom previous = get(index);
+            int n = startingMol.size();
+            if (index >= n) {
+                appendedSites.set(index - n, at);
+            } else {
+                replacedSites.put(index, at);
+            }
+            return previous;
+        }
+
+        @Override
+        public void add(int index, Atom at) {
+            if (index != size()) {
+                throw new UnsupportedOperationException("Atoms can only be appended!");
+            }
+            appendedSites.add(at);
+        }
+
+        @Override
+        public int size() {
+            return startingMol.size() + appendedSites.size();
         }
     }
 
@@ -95,6 +95,152 @@ public class MolVecMath {
         return newCoord;
     }
 
+    /**
+     * Places an atom from internal coordinates using the Natural Extension
+     * Reference Frame (NeRF) method, working directly on primitive doubles.
+     * The new atom D is bonded to C, makes an angle D-C-B and a dihedral
+     * D-C-B-A.
+     * @param ax x-coordinate of dihedral reference atom A.
+     * @param ay y-coordinate of dihedral reference atom A.
+     * @param az z-coordinate of dihedral reference atom A.
+     * @param bx x-coordinate of angle reference atom B.
+     * @param by y-coordinate of angle reference atom B.
+     * @param bz z-coordinate of angle reference atom B.
+     * @param cx x-coordinate of bonded atom C.
+     * @param cy y-coordinate of bonded atom C.
+     * @param cz z-coordinate of bonded atom C.
+     * @param bond Bond length D-C in Angstroms.
+     * @param angle Angle D-C-B in degrees.
+     * @param dih Dihedral angle D-C-B-A in degrees.
+     * @param out Array to receive coordinates of D.
+     * @param offset Position in out of x-coordinate of D.
+     */
+    public static void nerf(double ax, double ay, double az, double bx, double by, double bz,
+            double cx, double cy, double cz, double bond, double angle, double dih,
+            double[] out, int offset) {
+        // Unit vector along B->C.
+        double bcx = cx - bx;
+        double bcy = cy - by;
+        double bcz = cz - bz;
+        double len = sqrt(bcx * bcx + bcy * bcy + bcz * bcz);
+        bcx /= len;
+        bcy /= len;
+        bcz /= len;
+        // Unit normal of plane ABC.
+        double abx = bx - ax;
+        double aby = by - ay;
+        double abz = bz - az;
+        double nx = aby * bcz - abz * bcy;
+        double ny = abz * bcx - abx * bcz;
+        double nz = abx * bcy - aby * bcx;
+        len = sqrt(nx * nx + ny * ny + nz * nz);
+        nx /= len;
+        ny /= len;
+        nz /= len;
+        // Completes the right handed frame (bc, m, n).
+        double mx = ny * bcz - nz * bcy;
+        double my = nz * bcx - nx * bcz;
+        double mz = nx * bcy - ny * bcx;
+
+        double theta = angle * PI / 180;
+        double phi = dih * PI / 180;
+        double d0 = -bond * cos(theta);
+        double d1 = bond * sin(theta) * cos(phi);
+        double d2 = bond * sin(theta) * sin(phi);
+        out[offset] = cx + bcx * d0 + mx * d1 + nx * d2;
+        out[offset + 1] = cy + bcy * d0 + my * d1 + ny * d2;
+        out[offset + 2] = cz + bcz * d0 + mz * d1 + nz * d2;
+    }
+
+    /**
+     * Converts a whole Z-matrix to cartesian coordinates.  Follows the same
+     * conventions as DefaultMolBuilder.ZMat2Cart, i.e. the first atom is at
+     * the origin, the second along the z-axis and the third in the xz-plane.
+     * @param refs Zero-based indices of the bond, angle and dihedral reference
+     * atoms of atom i at positions 3i, 3i+1 and 3i+2.  Entries which are not
+     * needed for the first three atoms are ignored.  The others must be
+     * distinct earlier atoms.
+     * @param b Bond lengths in Angstroms.
+     * @param a Bond angles in degrees.
+     * @param d Dihedral angles in degrees.
+     * @param out Array to receive packed cartesian coordinates, x, y and z of
+     * each atom in turn.
+     */
+    public static void zmatToCartesian(int[] refs, double[] b, double[] a, double[] d, double[] out) {
+        int n = b.length;
+        if (refs.length < 3 * n || a.length < n || d.length < n || out.length < 3 * n) {
+            throw new IllegalArgumentException("Z-matrix arrays do not match number of atoms!");
+        }
+        for (int i = 0; i < n; i++) {
+            int o = 3 * i;
+            int i1 = refs[o];
+            int i2 = refs[o + 1];
+            int i3 = refs[o + 2];
+            if (!isValidReference(i, i1, i2, i3)) {
+                throw new IllegalArgumentException("Input Z-matrix refers to atoms not yet in molecule!");
+            }
+            switch (i) {
+                case 0:
+                    out[0] = 0;
+                    out[1] = 0;
+                    out[2] = 0;
+                    break;
+                case 1:
+                    out[3] = 0;
+                    out[4] = 0;
+                    out[5] = b[1];
+                    break;
+                case 2:
+                    placeInXZPlane(out[3 * i2], out[3 * i2 + 1], out[3 * i2 + 2],
+                            out[3 * i1], out[3 * i1 + 1], out[3 * i1 + 2], b[2], a[2], out, o);
+                    break;
+                default:
+                    nerf(out[3 * i3], out[3 * i3 + 1], out[3 * i3 + 2],
+                            out[3 * i2], out[3 * i2 + 1], out[3 * i2 + 2],
+                            out[3 * i1], out[3 * i1 + 1], out[3 * i1 + 2], b[i], a[i], d[i], out, o);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Checks the reference atoms of the Z-matrix entry of atom i.  Only the
+     * references the position uses are checked: none for the first atom, the
+     * bond reference for the second, bond and angle references for the
+     * third, and all three after that.  They must be earlier atoms and
+     * distinct, since a repeated reference leaves the position undefined.
+     */
+    static boolean isValidReference(int i, int i1, int i2, int i3) {
+        if (i > 0 && (i1 < 0 || i1 >= i)) {
+            return false;
+        }
+        if (i > 1 && (i2 < 0 || i2 >= i || i2 == i1)) {
+            return false;
+        }
+        return i <= 2 || (i3 >= 0 && i3 < i && i3 != i1 && i3 != i2);
+    }
+
+    /**
+     * Places the third atom of a Z-matrix by rotating the angle reference
+     * atom B about the y-axis through the bonded atom C and scaling to the
+     * bond length.
+     */
+    static void placeInXZPlane(double bx, double by, double bz, double cx, double cy, double cz,
+            double bond, double angle, double[] out, int offset) {
+        double theta = angle * PI / 180;
+        double cosT = cos(theta);
+        double sinT = sin(theta);
+        double vx = bx - cx;
+        double vy = by - cy;
+        double vz = bz - cz;
+        double rx = cosT * vx + sinT * vz;
+        double rz = -sinT * vx + cosT * vz;
+        double scale = bond / sqrt(rx * rx + vy * vy + rz * rz);
+        out[offset] = cx + rx * scale;
+        out[offset + 1] = cy + vy * scale;
+        out[offset + 2] = cz + rz * scale;
+    }
+
     /**
      * Special method to determine sign of dihedral angle
      */
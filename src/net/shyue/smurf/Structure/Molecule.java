@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import javax.vecmath.Point3d;
 
 /**
@@ -13,6 +14,12 @@ import javax.vecmath.Point3d;
  * efficient iteration through the atoms.  Use MolBuilder interface to
  * make new Molecules.
  * 
+ * Atoms are stored in packed form, i.e. a species array and a single
+ * coordinate array holding x, y and z of atom i at positions 3i, 3i+1 and
+ * 3i+2.  Atom objects are only a view of this store and are created lazily
+ * the first time an index is accessed, after which the same instance is
+ * always returned for that index.
+ * 
  * @author shyue
  * @version 2.0
  * 
@@ -22,7 +29,18 @@ public final class Molecule implements Iterable<Atom> {
     private String name;
     private int charge;
     private int spinMult;
-    private final List<Atom> sites;
+    private final Element[] species;
+    private final double[] coords;
+    private final Atom[] atoms;
+    /*
+     * Derived properties, computed lazily on first use.  Species and
+     * coordinates never change, so these never need to be recomputed.  The
+     * charge is only applied to the electron count on return.
+     */
+    private volatile String chemFormula;
+    private volatile double molWt = Double.NaN;
+    private volatile int nuclearCharge = -1;
+    private volatile Point3d centerOfMass;
 
     /**
      *
@@ -35,10 +53,41 @@ public final class Molecule implements Iterable<Atom> {
         name = name_in;
         charge = charge_in;
         spinMult = spin_mul_in;
-        sites = new ArrayList<Atom>(sites_in.size());
+        int n = sites_in.size();
+        species = new Element[n];
+        coords = new double[3 * n];
+        atoms = new Atom[n];
+        int i = 0;
         for (Atom at : sites_in) {
-            sites.add(at);
+            species[i] = at.getSpecies();
+            coords[3 * i] = at.getX();
+            coords[3 * i + 1] = at.getY();
+            coords[3 * i + 2] = at.getZ();
+            atoms[i] = at;
+            i++;
+        }
+    }
+
+    /**
+     * Creates a Molecule directly from packed arrays.  The arrays are NOT
+     * copied and must not be modified by the caller afterwards.  The species
+     * array may be shared between Molecules.
+     * @param name_in
+     * @param charge_in
+     * @param spin_mul_in
+     * @param species_in Species of each atom.
+     * @param coords_in Packed coordinates, x, y and z of each atom in turn.
+     */
+    Molecule(String name_in, int charge_in, int spin_mul_in, Element[] species_in, double[] coords_in) {
+        if (coords_in.length != 3 * species_in.length) {
+            throw new IllegalArgumentException("Coordinate array does not match number of species!");
         }
+        name = name_in;
+        charge = charge_in;
+        spinMult = spin_mul_in;
+        species = species_in;
+        coords = coords_in;
+        atoms = new Atom[species_in.length];
     }
 
     /**
@@ -61,7 +110,12 @@ public final class Molecule implements Iterable<Atom> {
      * @return Atom at indexed position in Molecule.
      */
     public Atom get(int index) {
-        return sites.get(index);
+        Atom at = atoms[index];
+        if (at == null) {
+            at = new Atom(species[index], coords[3 * index], coords[3 * index + 1], coords[3 * index + 2]);
+            atoms[index] = at;
+        }
+        return at;
     }
 
     /**
@@ -70,7 +124,55 @@ public final class Molecule implements Iterable<Atom> {
      * @return Point3d Atom coordinates at indexed position in Molecule.
      */
     public Point3d getAtomCoord(int index) {
-        return sites.get(index).getCoord();
+        return new Point3d(coords[3 * index], coords[3 * index + 1], coords[3 * index + 2]);
+    }
+
+    /**
+     * Copies the packed species and coordinates of all atoms into the start
+     * of the supplied arrays, which must be large enough to hold them.
+     * @param speciesOut Array to receive species.
+     * @param coordsOut Array to receive packed coordinates.
+     */
+    void copyPackedInto(Element[] speciesOut, double[] coordsOut) {
+        System.arraycopy(species, 0, speciesOut, 0, species.length);
+        System.arraycopy(coords, 0, coordsOut, 0, coords.length);
+    }
+
+    /**
+     * Copies the packed coordinates of all atoms into out, starting at
+     * offset.
+     * @param out Array to receive packed coordinates.
+     * @param offset Position in out of x-coordinate of first atom.
+     */
+    void copyCoordsInto(double[] out, int offset) {
+        System.arraycopy(coords, 0, out, offset, coords.length);
+    }
+
+    /**
+     * Returns x-coordinate of atom at position given by index.
+     * @param index Atom index.
+     * @return x-coordinate.
+     */
+    public double x(int index) {
+        return coords[3 * index];
+    }
+
+    /**
+     * Returns y-coordinate of atom at position given by index.
+     * @param index Atom index.
+     * @return y-coordinate.
+     */
+    public double y(int index) {
+        return coords[3 * index + 1];
+    }
+
+    /**
+     * Returns z-coordinate of atom at position given by index.
+     * @param index Atom index.
+     * @return z-coordinate.
+     */
+    public double z(int index) {
+        return coords[3 * index + 2];
     }
 
     /**
@@ -79,7 +181,7 @@ public final class Molecule implements Iterable<Atom> {
      * @return Atom at indexed position in Molecule.
      */
     public Element getAtomSpecies(int index) {
-        return sites.get(index).getSpecies();
+        return species[index];
     }
 
     /**
@@ -88,26 +190,42 @@ public final class Molecule implements Iterable<Atom> {
      * @return index of at.
      */
     public int indexOf(Atom at) {
-        return sites.indexOf(at);
+        double x = at.getX();
+        double y = at.getY();
+        double z = at.getZ();
+        for (int i = 0; i < species.length; i++) {
+            if (atoms[i] == at) {
+                return i;
+            }
+            if (species[i] == at.getSpecies() && coords[3 * i] == x
+                    && coords[3 * i + 1] == y && coords[3 * i + 2] == z) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     /**
      * @return Center of mass of Molecule.
      */
     public Point3d getCenterOfMass() {
-        double x = 0;
-        double y = 0;
-        double z = 0;
-        double molWt = 0;
-        for (Atom at : sites) {
-            double atWt = at.getAtWt();
-            x += at.getCoord().x * atWt;
-            y += at.getCoord().y * atWt;
-            z += at.getCoord().z * atWt;
-            molWt += atWt;
+        Point3d com = centerOfMass;
+        if (com == null) {
+            double x = 0;
+            double y = 0;
+            double z = 0;
+            double totalWt = 0;
+            for (int i = 0; i < species.length; i++) {
+                double atWt = species[i].getAtWt();
+                x += coords[3 * i] * atWt;
+                y += coords[3 * i + 1] * atWt;
+                z += coords[3 * i + 2] * atWt;
+                totalWt += atWt;
+            }
+            com = new Point3d(x / totalWt, y / totalWt, z / totalWt);
+            centerOfMass = com;
         }
-        return new Point3d(x / molWt, y / molWt, z / molWt);
-
+        return new Point3d(com);
     }
 
 
@@ -126,14 +244,19 @@ public final class Molecule implements Iterable<Atom> {
      * @return
      */
     public Molecule getCenteredCopy(Point3d newCenter) {
-
-        List<Atom> newSites = new ArrayList<Atom>(sites.size());
-        for (Atom at : sites) {
-            Point3d newCoord = new Point3d(at.getCoord());
-            newCoord.sub(newCenter);
-            newSites.add(new Atom(at.getSpecies(), newCoord));
+        double[] newCoords = new double[coords.length];
+        for (int i = 0; i < species.length; i++) {
+            newCoords[3 * i] = coords[3 * i] - newCenter.x;
+            newCoords[3 * i + 1] = coords[3 * i + 1] - newCenter.y;
+            newCoords[3 * i + 2] = coords[3 * i + 2] - newCenter.z;
         }
-        return new Molecule(name, charge, spinMult, newSites);
+        // Species array is never modified and can be shared by the copy, as
+        // can all derived properties that depend only on species.
+        Molecule copy = new Molecule(name, charge, spinMult, species, newCoords);
+        copy.chemFormula = chemFormula;
+        copy.molWt = molWt;
+        copy.nuclearCharge = nuclearCharge;
+        return copy;
     }
 
     /**
@@ -148,7 +271,12 @@ public final class Molecule implements Iterable<Atom> {
      * @return Chemical formula of molecule.
      */
     public String getChemFormula() {
-        return StringConvUtils.chemicalFormulaFromAtomList(sites);
+        String formula = chemFormula;
+        if (formula == null) {
+            formula = StringConvUtils.chemicalFormulaFromSpecies(species);
+            chemFormula = formula;
+        }
+        return formula;
     }
 
     /**
@@ -156,13 +284,14 @@ public final class Molecule implements Iterable<Atom> {
      * @return Molecular weight
      */
     public double getMolWt() {
-        double molwt = 0;
-
-        for (Atom at : sites) {
-            molwt += at.getAtWt();
+        double molwt = molWt;
+        if (Double.isNaN(molwt)) {
+            molwt = 0;
+            for (Element el : species) {
+                molwt += el.getAtWt();
+            }
+            molWt = molwt;
         }
-
-
         return molwt;
     }
 
@@ -172,7 +301,7 @@ public final class Molecule implements Iterable<Atom> {
      * @return Name of Molecule
      */
     public String getName() {
-        if (!name.matches("")) {
+        if (name.length() > 0) {
             return name;
         } else {
             return getChemFormula();
@@ -184,10 +313,11 @@ public final class Molecule implements Iterable<Atom> {
      */
     public int getSpinMult() {
         // Check if charge and spin multiplicity is plausible
-        if ((spinMult - getTotalElectrons()) % 2 == 0) {
+        int electrons = getTotalElectrons();
+        if ((spinMult - electrons) % 2 == 0) {
             return spinMult;
         } else {
-            return getTotalElectrons() % 2 + 1;
+            return electrons % 2 + 1;
         }
     }
 
@@ -195,11 +325,15 @@ public final class Molecule implements Iterable<Atom> {
      * @return Total number of electrons.
      */
     public int getTotalElectrons() {
-        int electrons = 0;
-        for (Atom at : sites) {
-            electrons += at.getAtNo();
+        int nuclear = nuclearCharge;
+        if (nuclear < 0) {
+            nuclear = 0;
+            for (Element el : species) {
+                nuclear += el.getAtNo();
+            }
+            nuclearCharge = nuclear;
         }
-        return electrons - charge;
+        return nuclear - charge;
     }
 
     /**
@@ -207,7 +341,7 @@ public final class Molecule implements Iterable<Atom> {
      * @return Number of atoms in Molecule.
      */
     public int size() {
-        return sites.size();
+        return species.length;
     }
 
     /**
@@ -217,7 +351,10 @@ public final class Molecule implements Iterable<Atom> {
      * @return Distance in Angstroms.
      */
     public double getDist(Atom i, Atom j) {
-        return i.getCoord().distance(j.getCoord());
+        double dx = i.getX() - j.getX();
+        double dy = i.getY() - j.getY();
+        double dz = i.getZ() - j.getZ();
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
     }
 
     /**
@@ -227,7 +364,21 @@ public final class Molecule implements Iterable<Atom> {
      * @return Distance in Angstroms.
      */
     public double getDist(int i, int j) {
-        return getDist(sites.get(i), sites.get(j));
+        return Math.sqrt(distanceSquared(i, j));
+    }
+
+    /**
+     * Returns the squared distance between atoms indexed by i and j.  Cheaper
+     * than getDist when only comparisons are needed.
+     * @param i Index of first Atom.
+     * @param j Index of second Atom.
+     * @return Squared distance in Angstroms^2.
+     */
+    public double distanceSquared(int i, int j) {
+        double dx = coords[3 * i] - coords[3 * j];
+        double dy = coords[3 * i + 1] - coords[3 * j + 1];
+        double dz = coords[3 * i + 2] - coords[3 * j + 2];
+        return dx * dx + dy * dy + dz * dz;
     }
 
     /**
@@ -237,7 +388,28 @@ public final class Molecule implements Iterable<Atom> {
     @Override
     public Iterator<Atom> iterator() {
 
-        return sites.iterator();
+        return new Iterator<Atom>() {
+
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < species.length;
+            }
+
+            @Override
+            public Atom next() {
+                if (next >= species.length) {
+                    throw new NoSuchElementException();
+                }
+                return get(next++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("Molecule is immutable!");
+            }
+        };
     }
 
     /**
@@ -245,9 +417,9 @@ public final class Molecule implements Iterable<Atom> {
      * @return
      */
     public List<Atom> getSites() {
-        List<Atom> copiedList = new ArrayList<Atom>(sites.size());
-        for (Atom at : sites) {
-            copiedList.add(at);
+        List<Atom> copiedList = new ArrayList<Atom>(species.length);
+        for (int i = 0; i < species.length; i++) {
+            copiedList.add(get(i));
         }
         return copiedList;
     }
@@ -257,10 +429,7 @@ public final class Molecule implements Iterable<Atom> {
      * @return 
      */
     public Molecule sortedCopy() {
-        List<Atom> copiedSites = new ArrayList<Atom>(sites.size());
-        for (Atom at : sites) {
-            copiedSites.add(at);
-        }
+        List<Atom> copiedSites = getSites();
 
         Collections.sort(copiedSites);
         return new Molecule(name, charge, spinMult, copiedSites);
@@ -274,9 +443,9 @@ public final class Molecule implements Iterable<Atom> {
      * @return Angle in degrees.
      */
     public double angle(int i, int j, int k) {
-        return MolVecMath.angle(sites.get(i).getCoord(),
-                sites.get(j).getCoord(),
-                sites.get(k).getCoord());
+        return MolVecMath.angle(getAtomCoord(i),
+                getAtomCoord(j),
+                getAtomCoord(k));
     }
 
     /**
@@ -288,10 +457,10 @@ public final class Molecule implements Iterable<Atom> {
      * @return Dihedral angle in degrees.
      */
     public double dihedral(int i, int j, int k, int l) {
-        return MolVecMath.dihedral(sites.get(i),
-                sites.get(j),
-                sites.get(k),
-                sites.get(l));
+        return MolVecMath.dihedral(get(i),
+                get(j),
+                get(k),
+                get(l));
     }
 
     /**
@@ -0,0 +1,188 @@
+package net.shyue.smurf.Structure;
+
+import Jama.Matrix;
+import java.util.Arrays;
+import javax.vecmath.Point3d;
+
+/**
+ * A 128-bit geometric fingerprint of a Molecule for fast deduplication.
+ * 
+ * The fingerprint combines the charge, the species counts, a histogram of
+ * interatomic distances binned by species pair and distance, and the
+ * normalized eigenvalues of the inertia tensor.  All of these are invariant
+ * to translation, rotation and the order of atoms, so the same structure
+ * always gives the same fingerprint.  Distances and eigenvalues are
+ * quantized with a tolerance, so that structures differing by small
+ * numerical noise will in general also give the same fingerprint.
+ * 
+ * Since quantization boundaries can separate two nearly identical
+ * structures, and distinct structures can collide, equal fingerprints should
+ * be used to bucket Molecules before a proper comparison rather than as a
+ * final test of equivalence.
+ * 
+ * @author shyue
+ */
+public final class MoleculeFingerprint {
+
+    /**
+     * Default distance quantization in Angstroms.
+     */
+    public static final double DEFAULT_DISTANCE_TOLERANCE = 0.05;
+    /**
+     * Default quantization of normalized inertia eigenvalues.
+     */
+    public static final double DEFAULT_EIG_TOLERANCE = 0.01;
+    /**
+     * Only pairs of atoms closer than this are included in the distance
+     * histogram, so that the fingerprint can be computed in linear time for
+     * large structures.
+     */
+    private static final double DISTANCE_CUTOFF = 10.0;
+    /**
+     * Offset of quantization bin boundaries.  Symmetric structures often have
+     * distances and eigenvalues which are exact multiples of the tolerance,
+     * e.g. eigenvalues of 0.25 and 0.5, and bin boundaries at these values
+     * would make the fingerprint sensitive to rounding noise.
+     */
+    private static final double BIN_OFFSET = 0.381966;
+    private static final long SPECIES_TAG = 1L << 48;
+    private static final long CHARGE_TAG = 2L << 48;
+    private static final long SALT = 0x5851f42d4c957f2dL;
+    private final long highBits;
+    private final long lowBits;
+
+    /**
+     * Creates the fingerprint of a Molecule using the default tolerances.
+     * @param mol Molecule
+     */
+    public MoleculeFingerprint(Molecule mol) {
+        this(mol, DEFAULT_DISTANCE_TOLERANCE, DEFAULT_EIG_TOLERANCE);
+    }
+
+    /**
+     * Creates the fingerprint of a Molecule.
+     * @param mol Molecule
+     * @param distTolerance Distance quantization in Angstroms.
+     * @param eigTolerance Quantization of normalized inertia eigenvalues.
+     */
+    public MoleculeFingerprint(Molecule mol, double distTolerance, double eigTolerance) {
+        if (!(distTolerance > 0) || !(eigTolerance > 0)) {
+            throw new IllegalArgumentException("Tolerances must be positive!");
+        }
+        // Multiset parts of the fingerprint are summed so that they do not
+        // depend on the order of atoms.
+        long lo = mix(CHARGE_TAG + mol.getCharge());
+        long hi = mix((CHARGE_TAG + mol.getCharge()) ^ SALT);
+        int n = mol.size();
+        for (int i = 0; i < n; i++) {
+            long key = SPECIES_TAG + mol.getAtomSpecies(i).getAtNo();
+            lo += mix(key);
+            hi += mix(key ^ SALT);
+        }
+
+        if (n > 1) {
+            CellList cells = new CellList(mol, DISTANCE_CUTOFF);
+            for (int i = 0; i < n; i++) {
+                int zi = mol.getAtomSpecies(i).getAtNo();
+                for (int j : cells.getNeighbors(i, DISTANCE_CUTOFF)) {
+                    if (j > i) {
+                        int zj = mol.getAtomSpecies(j).getAtNo();
+                        long bin = quantize(mol.getDist(i, j), distTolerance);
+                        long key = ((long) Math.min(zi, zj) << 40) | ((long) Math.max(zi, zj) << 32) | bin;
+                        lo += mix(key);
+                        hi += mix(key ^ SALT);
+                    }
+                }
+            }
+        }
+
+        double[] eigenvalues = inertiaEigenvalues(mol);
+        for (double eig : eigenvalues) {
+            long q = quantize(eig, eigTolerance);
+            lo = mix(lo * 31 + q);
+            hi = mix((hi * 31 + q) ^ SALT);
+        }
+        lowBits = lo;
+        highBits = hi;
+    }
+
+    /**
+     * @return Upper 64 bits of fingerprint.
+     */
+    public long getHighBits() {
+        return highBits;
+    }
+
+    /**
+     * @return Lower 64 bits of fingerprint, which can be used on its own as
+     * a 64-bit hash.
+     */
+    public long getLowBits() {
+        return lowBits;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof MoleculeFingerprint)) {
+            return false;
+        }
+        MoleculeFingerprint fp = (MoleculeFingerprint) o;
+        return (fp.highBits == highBits) && (fp.lowBits == lowBits);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (lowBits ^ (lowBits >>> 32));
+    }
+
+    /**
+     * @return Fingerprint as 32 hexadecimal digits.
+     */
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", highBits, lowBits);
+    }
+
+    /**
+     * Returns sorted eigenvalues of the inertia tensor about the center of
+     * mass, normalized by its trace as in SymmetryAnalyzer.
+     */
+    private static double[] inertiaEigenvalues(Molecule mol) {
+        Point3d com = mol.getCenterOfMass();
+        double Ixx = 0, Iyy = 0, Izz = 0, Ixy = 0, Iyz = 0, Ixz = 0, TotalI = 0;
+        for (int i = 0; i < mol.size(); i++) {
+            double AtWt = mol.getAtomSpecies(i).getAtWt();
+            double x = mol.x(i) - com.x;
+            double y = mol.y(i) - com.y;
+            double z = mol.z(i) - com.z;
+            Ixx += AtWt * (y * y + z * z);
+            Iyy += AtWt * (x * x + z * z);
+            Izz += AtWt * (x * x + y * y);
+            Ixy += -AtWt * x * y;
+            Iyz += -AtWt * y * z;
+            Ixz += -AtWt * x * z;
+            TotalI += AtWt * (x * x + y * y + z * z);
+        }
+        if (TotalI == 0) {
+            return new double[3];
+        }
+        double[][] Imat = {{Ixx, Ixy, Ixz}, {Ixy, Iyy, Iyz}, {Ixz, Iyz, Izz}};
+        double[] eigenvalues = new Matrix(Imat).times(1.0 / TotalI).eig().getRealEigenvalues();
+        Arrays.sort(eigenvalues);
+        return eigenvalues;
+    }
+
+    private static long quantize(double value, double tolerance) {
+        return (long) Math.floor(value / tolerance + BIN_OFFSET);
+    }
+
+    /**
+     * Finalizer of the SplitMix64 generator, a fast bijective 64-bit mixing
+     * function.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
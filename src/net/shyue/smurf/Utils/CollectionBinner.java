@@ -1,9 +1,14 @@
 package net.shyue.smurf.Utils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import net.shyue.smurf.Structure.Atom;
+import net.shyue.smurf.Structure.Element;
+import net.shyue.smurf.Structure.Molecule;
 
 /**
  * Class containing static methods to sort a provided list into various bins
@@ -59,6 +64,109 @@ public final class CollectionBinner {
         return groupedMap;
     }
 
+    /**
+     * Method to "bin" a list by identifier only, which takes linear time
+     * instead of comparing each item against every existing bin.  Only
+     * suitable for comparators whose getIdentifier returns equal identifiers
+     * for all similar objects, e.g. species or fingerprint binning.  The
+     * identifier of each item is computed exactly once.
+     * 
+     * @param <K>
+     * @param <T>
+     * @param list
+     * @param comparator
+     * @return
+     */
+    public static <K, T> Map<K, List<T>> groupByIdentifier(List<T> list, SimilarityComparator<K, T> comparator) {
+        Map<K, List<T>> groupedMap = new HashMap<K, List<T>>();
+        for (T item : list) {
+            K key = comparator.getIdentifier(item);
+            List<T> existingGrp = groupedMap.get(key);
+            if (existingGrp == null) {
+                existingGrp = new ArrayList<T>();
+                groupedMap.put(key, existingGrp);
+            }
+            existingGrp.add(item);
+        }
+        return groupedMap;
+    }
+
+    /**
+     * Bins the atoms of a Molecule into shells of similar distance from the
+     * origin, and each shell by species.  Distances are computed once and
+     * sorted, and a new shell is started whenever a distance exceeds the
+     * smallest distance of the current shell by tolerance or more, so each
+     * shell spans less than tolerance.  Within a shell, atoms are grouped by
+     * a counting sort on atomic number.  This takes O(n log n) time, compared
+     * to O(n.shells) for group with a DistanceSimilarityComparator.
+     * 
+     * @param mol Molecule
+     * @param tolerance Largest difference in distance within a shell.
+     * @return Map from the smallest distance in each shell to its atoms by
+     * species.  Shells are in order of increasing distance, species in order
+     * of increasing atomic number and atoms of a species in the order of the
+     * Molecule.
+     */
+    public static Map<Double, Map<Element, List<Atom>>> groupIntoShells(Molecule mol, double tolerance) {
+        int n = mol.size();
+        double[] dist = new double[n];
+        for (int i = 0; i < n; i++) {
+            dist[i] = Math.sqrt(mol.x(i) * mol.x(i) + mol.y(i) * mol.y(i) + mol.z(i) * mol.z(i));
+        }
+        /* Sort indices by distance as a primitive array of longs.  The bits of
+         * a non-negative double sort like its value, so the index replaces
+         * the lowest bits, which only perturbs the order of distances equal
+         * to within a relative 2^-21. */
+        int indexBits = 32 - Integer.numberOfLeadingZeros(Math.max(1, n - 1));
+        long indexMask = (1L << indexBits) - 1;
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = (Double.doubleToLongBits(dist[i]) & ~indexMask) | i;
+        }
+        Arrays.sort(keys);
+
+        Map<Double, Map<Element, List<Atom>>> shells = new LinkedHashMap<Double, Map<Element, List<Atom>>>();
+        Element[] elements = Element.values();
+        int[] counts = new int[elements.length + 1];
+        int start = 0;
+        while (start < n) {
+            double shellDist = dist[(int) (keys[start] & indexMask)];
+            int end = start + 1;
+            while (end < n && dist[(int) (keys[end] & indexMask)] - shellDist < tolerance) {
+                end++;
+            }
+            int[] members = new int[end - start];
+            for (int k = start; k < end; k++) {
+                members[k - start] = (int) (keys[k] & indexMask);
+            }
+            Arrays.sort(members);
+            // Stable counting sort of the shell by species.
+            Arrays.fill(counts, 0);
+            for (int i : members) {
+                counts[mol.getAtomSpecies(i).ordinal() + 1]++;
+            }
+            for (int e = 0; e < elements.length; e++) {
+                counts[e + 1] += counts[e];
+            }
+            int[] bySpecies = new int[members.length];
+            for (int i : members) {
+                bySpecies[counts[mol.getAtomSpecies(i).ordinal()]++] = i;
+            }
+            Map<Element, List<Atom>> shell = new LinkedHashMap<Element, List<Atom>>();
+            for (int k = 0; k < bySpecies.length;) {
+                Element species = mol.getAtomSpecies(bySpecies[k]);
+                List<Atom> atoms = new ArrayList<Atom>();
+                for (; k < bySpecies.length && mol.getAtomSpecies(bySpecies[k]) == species; k++) {
+                    atoms.add(mol.get(bySpecies[k]));
+                }
+                shell.put(species, atoms);
+            }
+            shells.put(shellDist, shell);
+            start = end;
+        }
+        return shells;
+    }
+
     /**
      * Generate a string representation of a Map of a binned list.
      * @param <K>
@@ -1,7 +1,6 @@
 package net.shyue.smurf.Utils;
 
 import net.shyue.smurf.Structure.Atom;
-import javax.vecmath.Point3d;
 
 /**
  * SimilarityComparator for binning by distance to origin within a certain tolerance.
@@ -20,9 +19,7 @@ public class DistanceSimilarityComparator implements SimilarityComparator<Double
         if (o1==o2){
             return true;
         }
-        double dist1 = o1.getCoord().distance(new Point3d(0,0,0));
-        double dist2 = o2.getCoord().distance(new Point3d(0,0,0));
-        if (Math.abs(dist1-dist2)<tolerance)
+        if (Math.abs(distanceToOrigin(o1)-distanceToOrigin(o2))<tolerance)
         {
             return true;
         }
@@ -31,7 +28,11 @@ public class DistanceSimilarityComparator implements SimilarityComparator<Double
 
     @Override
     public Double getIdentifier(Atom o1) {
-        return o1.getCoord().distance(new Point3d(0,0,0));
+        return distanceToOrigin(o1);
+    }
+
+    private static double distanceToOrigin(Atom at) {
+        return Math.sqrt(at.getX() * at.getX() + at.getY() * at.getY() + at.getZ() * at.getZ());
     }
 
 }
@@ -0,0 +1,42 @@
+package net.shyue.smurf.Utils;
+
+import net.shyue.smurf.Structure.Molecule;
+import net.shyue.smurf.Structure.MoleculeFingerprint;
+
+/**
+ * Binning of Molecules by geometric fingerprint.  Since similar Molecules
+ * always have the same identifier, this can be used with
+ * CollectionBinner.groupByIdentifier for linear time binning.
+ * @author shyue
+ */
+public class FingerprintSimilarityComparator implements SimilarityComparator<MoleculeFingerprint, Molecule> {
+
+    private final double distTolerance;
+    private final double eigTolerance;
+
+    public FingerprintSimilarityComparator() {
+        this(MoleculeFingerprint.DEFAULT_DISTANCE_TOLERANCE, MoleculeFingerprint.DEFAULT_EIG_TOLERANCE);
+    }
+
+    /**
+     * @param distTolerance_in Distance quantization in Angstroms.
+     * @param eigTolerance_in Quantization of normalized inertia eigenvalues.
+     */
+    public FingerprintSimilarityComparator(double distTolerance_in, double eigTolerance_in) {
+        distTolerance = distTolerance_in;
+        eigTolerance = eigTolerance_in;
+    }
+
+    @Override
+    public boolean areSimilar(Molecule o1, Molecule o2) {
+        if (o1 == o2) {
+            return true;
+        }
+        return getIdentifier(o1).equals(getIdentifier(o2));
+    }
+
+    @Override
+    public MoleculeFingerprint getIdentifier(Molecule o1) {
+        return new MoleculeFingerprint(o1, distTolerance, eigTolerance);
+    }
+}
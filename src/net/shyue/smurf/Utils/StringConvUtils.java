@@ -4,8 +4,6 @@ import net.shyue.smurf.Structure.Atom;
 import net.shyue.smurf.Structure.Element;
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
 
 /**
  *
@@ -25,30 +23,47 @@ public final class StringConvUtils {
      */
     public static String chemicalFormulaFromAtomList(Collection<Atom> atomList)
     {
-        
-        Map<Element, Integer> formula = new TreeMap<Element,Integer>();
+        int[] counts = new int[Element.values().length];
         for (Atom at : atomList) {
-            if (formula.containsKey(at.getSpecies()))
-            {
-                formula.put(at.getSpecies(), formula.get(at.getSpecies())+1);
-            }
-            else
-            {
-                formula.put(at.getSpecies(), 1);
-            }
+            counts[at.getSpecies().ordinal()]++;
         }
-        String chemform = "";
-        for (Element key : formula.keySet())
+        return chemicalFormulaFromCounts(counts);
+    }
+
+    /**
+     * Generates the chemical formula from an array of species.
+     * @param speciesList
+     * @return
+     */
+    public static String chemicalFormulaFromSpecies(Element[] speciesList)
+    {
+        int[] counts = new int[Element.values().length];
+        for (Element el : speciesList) {
+            counts[el.ordinal()]++;
+        }
+        return chemicalFormulaFromCounts(counts);
+    }
+
+    /**
+     * Species are written in the order they are declared in Element, with
+     * counts of 1 omitted.
+     */
+    private static String chemicalFormulaFromCounts(int[] counts)
+    {
+        Element[] elements = Element.values();
+        StringBuilder chemform = new StringBuilder();
+        for (int i = 0; i < counts.length; i++)
         {
-            if (formula.get(key)==1)
+            if (counts[i] == 1)
             {
-                chemform += key;
+                chemform.append(elements[i]);
             }
-            else{
-                chemform += key.toString()+formula.get(key);
+            else if (counts[i] > 1)
+            {
+                chemform.append(elements[i]).append(counts[i]);
             }
         }
-        return chemform;
+        return chemform.toString();
     }
 
     /**
@@ -57,11 +72,11 @@ public final class StringConvUtils {
      * @return
      */
     public static String atomListToSpeciesString(List<Atom> atomList) {
-        String output = "";
+        StringBuilder output = new StringBuilder();
         for (Atom at : atomList) {
-            output += at.getSpecies();
+            output.append(at.getSpecies());
         }
-        return output;
+        return output.toString();
     }
 
 }